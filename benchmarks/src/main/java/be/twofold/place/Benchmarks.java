@@ -0,0 +1,28 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+final class Benchmarks {
+
+    private Benchmarks() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Deletes a directory and everything in it
+     */
+    static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+}
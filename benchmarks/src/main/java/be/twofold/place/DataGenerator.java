@@ -0,0 +1,258 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.List;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Generates synthetic source files, shaped like the real dumps of a year.
+ * <p>
+ * Timestamps increase over the duration of the event with a bit of jitter, and drop trailing zeros of the fraction
+ * like the real dumps do. Users are drawn from a fixed pool, skewed so a few users place many pixels and most place
+ * only a few. The canvas grows and the palette expands like it did during the event, and a rare line is a mod
+ * rectangle or circle.
+ */
+final class DataGenerator {
+
+    private static final DateTimeFormatter Formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final double ModRate = 0.00005;
+
+    private final Year year;
+    private final byte[][] users;
+    private final List<String> colors;
+    private final Instant start;
+    private final Duration duration;
+
+    DataGenerator(Year year, int userCount, long seed) {
+        this(year, userCount, null, seed);
+    }
+
+    /**
+     * @param duration the time the placements are spread over, or {@code null} for the duration of the event
+     */
+    DataGenerator(Year year, int userCount, Duration duration, long seed) {
+        this.year = Objects.requireNonNull(year);
+        this.colors = year.getValue() == 2017 ? List.of() : hexColors(Renderer.Colors2022);
+        this.start = switch (year.getValue()) {
+            case 2017 -> Instant.parse("2017-03-31T00:00:00Z");
+            case 2022 -> Instant.parse("2022-04-01T12:44:10Z");
+            case 2023 -> Instant.parse("2023-07-20T13:00:00Z");
+            default -> throw new IllegalArgumentException("Year must be 2017, 2022 or 2023");
+        };
+        this.duration = duration != null ? duration : switch (year.getValue()) {
+            case 2017 -> Duration.ofHours(72);
+            case 2022 -> Duration.ofHours(84);
+            default -> Duration.ofHours(132);
+        };
+
+        // The 2017 hashes are 20 bytes, the later ones 64 bytes
+        Random random = new Random(seed);
+        byte[] hash = new byte[year.getValue() == 2017 ? 20 : 64];
+        this.users = new byte[userCount][];
+        for (int i = 0; i < userCount; i++) {
+            random.nextBytes(hash);
+            users[i] = Base64.getEncoder().encode(hash);
+        }
+    }
+
+    /**
+     * Generates count lines, without a header, spread over the whole duration
+     */
+    Lines lines(int count, long seed) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count * 128);
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        write(out, 0, count, count, new SplittableRandom(seed), (i, s, e) -> {
+            starts[i] = s;
+            ends[i] = e;
+        });
+        return new Lines(out.toByteArray(), starts, ends);
+    }
+
+    /**
+     * Generates and parses count lines, leaving out the lines that hold no placement
+     */
+    Placement[] placements(int count, long seed) {
+        Lines lines = lines(count, seed);
+        UserDictionary dictionary = new UserDictionary(64, users.length);
+        SourceParser parser = new SourceParser(year, dictionary::add, mod -> {
+        });
+        List<Placement> result = new ArrayList<>(count);
+        PlacementBatch batch = new PlacementBatch(1);
+        for (int i = 0; i < lines.count(); i++) {
+            if (parser.parse(lines.buffer(), lines.starts()[i], lines.ends()[i], batch)) {
+                result.add(batch.placement(0));
+                batch.clear();
+            }
+        }
+        return result.toArray(Placement[]::new);
+    }
+
+    /**
+     * Writes a set of source files that is picked up by the simplifier, each covering a consecutive part of the event
+     */
+    List<Path> writeSources(Path directory, int files, int linesPerFile, long seed) throws IOException {
+        if (year.getValue() == 2017) {
+            files = 1;
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Path> paths = new ArrayList<>();
+        for (int f = 0; f < files; f++) {
+            Path path = directory.resolve(year.getValue() == 2017
+                ? "place_tiles.csv"
+                : String.format("%d_place_canvas_history-%012d.csv.gzip", year.getValue(), f));
+
+            try (OutputStream out = open(path)) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(linesPerFile * 128);
+                buffer.writeBytes((header() + "\n").getBytes(StandardCharsets.ISO_8859_1));
+                write(buffer, f * linesPerFile, linesPerFile, files * linesPerFile, random, (i, s, e) -> {
+                });
+                buffer.writeTo(out);
+            }
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    private String header() {
+        return switch (year.getValue()) {
+            case 2017 -> "ts,user,x_coordinate,y_coordinate,color";
+            case 2022 -> "timestamp,user_id,pixel_color,coordinate";
+            default -> "timestamp,user,coordinate,pixel_color";
+        };
+    }
+
+    private void write(ByteArrayOutputStream out, int first, int count, int total, SplittableRandom random, LineSink sink) {
+        long spanMillis = duration.toMillis();
+        StringBuilder builder = new StringBuilder(256);
+        for (int i = 0; i < count; i++) {
+            double progress = (double) (first + i) / total;
+            long millis = Math.max(0, (long) (progress * spanMillis) + random.nextInt(-500, 501));
+
+            builder.setLength(0);
+            appendTimestamp(builder, start.plusMillis(millis));
+            builder.append(',');
+            appendUser(builder, random);
+            builder.append(',');
+            switch (year.getValue()) {
+                case 2017 -> append2017(builder, random);
+                case 2022 -> append2022(builder, random, progress);
+                default -> append2023(builder, random, progress);
+            }
+
+            int lineStart = out.size();
+            out.writeBytes(builder.toString().getBytes(StandardCharsets.ISO_8859_1));
+            sink.line(i, lineStart, out.size());
+            out.write('\n');
+        }
+    }
+
+    private static void appendTimestamp(StringBuilder builder, Instant instant) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(instant, ZoneOffset.UTC);
+        builder.append(Formatter.format(dateTime));
+        int millis = dateTime.getNano() / 1_000_000;
+        if (millis != 0) {
+            String fraction = String.format("%03d", millis);
+            int length = fraction.length();
+            while (fraction.charAt(length - 1) == '0') {
+                length--;
+            }
+            builder.append('.').append(fraction, 0, length);
+        }
+        builder.append(" UTC");
+    }
+
+    private void appendUser(StringBuilder builder, SplittableRandom random) {
+        // Skewed towards the first users, so there are some heavy users and a long tail
+        double r = random.nextDouble();
+        byte[] user = users[(int) (r * r * users.length)];
+        for (byte b : user) {
+            builder.append((char) b);
+        }
+    }
+
+    private static void append2017(StringBuilder builder, SplittableRandom random) {
+        // A few lines have no coordinates at all
+        if (random.nextDouble() < 0.0001) {
+            builder.append(",,0");
+            return;
+        }
+        builder.append(random.nextInt(1000)).append(',')
+            .append(random.nextInt(1000)).append(',')
+            .append(random.nextInt(16));
+    }
+
+    private void append2022(StringBuilder builder, SplittableRandom random, double progress) {
+        int width = progress < 1.0 / 3 ? 1000 : 2000;
+        int height = progress < 2.0 / 3 ? 1000 : 2000;
+        int palette = progress < 1.0 / 3 ? 16 : progress < 2.0 / 3 ? 24 : 32;
+        int x = random.nextInt(width);
+        int y = random.nextInt(height);
+
+        if (random.nextDouble() < ModRate) {
+            builder.append("#FFFFFF,\"").append(x).append(',').append(y).append(',')
+                .append(Math.min(x + 30, width - 1)).append(',').append(Math.min(y + 20, height - 1)).append('"');
+            return;
+        }
+        builder.append(colors.get(random.nextInt(palette)))
+            .append(",\"").append(x).append(',').append(y).append('"');
+    }
+
+    private void append2023(StringBuilder builder, SplittableRandom random, double progress) {
+        int halfWidth = progress < 0.3 ? 500 : 1500;
+        int halfHeight = progress < 0.5 ? 500 : 1000;
+        int x = random.nextInt(-halfWidth, halfWidth);
+        int y = random.nextInt(-halfHeight, halfHeight);
+
+        if (random.nextDouble() < ModRate) {
+            if (random.nextBoolean()) {
+                builder.append("\"{X: ").append(x).append(", Y: ").append(y).append(", R: 7}\",#FFFFFF");
+            } else {
+                builder.append('"').append(x).append(',').append(y).append(',')
+                    .append(x + 12).append(',').append(y + 9).append("\",#000000");
+            }
+            return;
+        }
+        builder.append('"').append(x).append(',').append(y).append("\",")
+            .append(colors.get(random.nextInt(colors.size())));
+    }
+
+    private static OutputStream open(Path path) throws IOException {
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16);
+        return path.getFileName().toString().endsWith(".gzip")
+            ? new GZIPOutputStream(out, 1 << 16)
+            : out;
+    }
+
+    private static List<String> hexColors(List<Color> colors) {
+        List<String> result = new ArrayList<>();
+        for (Color color : colors) {
+            result.add(String.format("#%06X", color.getRGB() & 0xFFFFFF));
+        }
+        return List.copyOf(result);
+    }
+
+    @FunctionalInterface
+    private interface LineSink {
+        void line(int index, int start, int end);
+    }
+
+    /**
+     * Lines back to back in a single buffer, with the bounds of every line
+     */
+    record Lines(byte[] buffer, int[] starts, int[] ends) {
+        int count() {
+            return starts.length;
+        }
+    }
+
+}
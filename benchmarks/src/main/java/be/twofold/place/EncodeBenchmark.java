@@ -0,0 +1,78 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.*;
+import java.awt.image.*;
+import java.io.*;
+import java.time.*;
+import java.util.concurrent.*;
+
+/**
+ * Encoding a single full size frame, and the copy that is taken of the canvas before it's handed off.
+ * <p>
+ * The ImageIO and copy benchmarks don't use the encoder parameters, pick a single value for those to skip repeats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EncodeBenchmark {
+
+    private static final int Size = 2000;
+
+    /**
+     * The number of placements on the canvas, fewer placements leave more of it blank and easier to compress
+     */
+    @Param({"100000", "1000000"})
+    public int placements;
+
+    @Param({"1", "6"})
+    public int level;
+
+    @Param({"none", "up"})
+    public String filter;
+
+    @Param({"1", "8"})
+    public int chunks;
+
+    private BufferedImage image;
+    private byte[] buffer;
+    private PngEncoder encoder;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 22);
+
+    @Setup
+    public void setup() {
+        IndexColorModel colorModel = Utils.fromColors(Renderer.Colors2022);
+        image = new BufferedImage(Size, Size, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+        buffer = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        encoder = new PngEncoder(level, PngEncoder.Filter.parse(filter), chunks);
+
+        for (Placement placement : new DataGenerator(Year.of(2022), 100_000, 42).placements(placements, 42)) {
+            buffer[placement.getY() * Size + placement.getX()] = (byte) (placement.getColor() - 1);
+        }
+    }
+
+    @Benchmark
+    public int imageIO() throws IOException {
+        out.reset();
+        ImageIO.write(image, "png", out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int pngEncoder() throws IOException {
+        out.reset();
+        encoder.write(buffer, Size, Size, (IndexColorModel) image.getColorModel(), out);
+        return out.size();
+    }
+
+    @Benchmark
+    public WritableRaster copyData() {
+        return image.copyData(null);
+    }
+
+}
@@ -0,0 +1,70 @@
+package be.twofold.place;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Simplifies a generated set of source files and renders the result, like a full run on a scaled down event
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EndToEndBenchmark {
+
+    @Param({"2017", "2022", "2023"})
+    public int year;
+
+    @Param({"memory", "external", "streaming"})
+    public String sort;
+
+    @Param({"3"})
+    public int files;
+
+    @Param({"300000"})
+    public int linesPerFile;
+
+    private Path sourceDirectory;
+    private Path targetDirectory;
+    private List<Path> sourceFiles;
+
+    @Setup
+    public void setup() throws IOException {
+        sourceDirectory = Files.createTempDirectory("place-sources");
+        sourceFiles = new DataGenerator(Year.of(year), 100_000, Duration.ofHours(2), 42)
+            .writeSources(sourceDirectory, files, linesPerFile, 42);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Benchmarks.delete(sourceDirectory);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws IOException {
+        targetDirectory = Files.createTempDirectory("place-target");
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() throws IOException {
+        Benchmarks.delete(targetDirectory);
+    }
+
+    @Benchmark
+    public void simplifyAndRender() throws IOException {
+        Options options = Options.parse(List.of("--sort=" + sort));
+        new Simplifier(sourceFiles, targetDirectory, Year.of(year), options).simplify();
+
+        PlacementFormat format = PlacementFormat.detect(targetDirectory);
+        Path frames = Files.createDirectory(targetDirectory.resolve("frames"));
+        new Renderer(format.newReader(format.resolve(targetDirectory)), Mods.read(targetDirectory), frames, Year.of(year), options).render();
+    }
+
+}
@@ -0,0 +1,76 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+import java.time.*;
+import java.util.concurrent.*;
+
+/**
+ * Parsing of source lines into placements, with the users looked up in a dictionary that is filled beforehand
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(ParseBenchmark.LineCount)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParseBenchmark {
+
+    static final int LineCount = 100_000;
+
+    @Param({"2017", "2022", "2023"})
+    public int year;
+
+    @Param({"10000", "1000000"})
+    public int users;
+
+    private DataGenerator.Lines lines;
+    private SourceParser parser;
+    private ConcurrentUserDictionary interner;
+    private final PlacementBatch batch = new PlacementBatch(1);
+
+    @Setup
+    public void setup() {
+        lines = new DataGenerator(Year.of(year), users, 42).lines(LineCount, 42);
+
+        UserDictionary dictionary = new UserDictionary(64, users);
+        parser = new SourceParser(Year.of(year), dictionary::add, mod -> {
+        });
+        for (int i = 0; i < lines.count(); i++) {
+            parser.parse(lines.buffer(), lines.starts()[i], lines.ends()[i], batch);
+            batch.clear();
+        }
+        parser = new SourceParser(Year.of(year), dictionary::get, mod -> {
+        });
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        interner = new ConcurrentUserDictionary(64);
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        byte[] buffer = lines.buffer();
+        for (int i = 0; i < lines.count(); i++) {
+            blackhole.consume(parser.parse(buffer, lines.starts()[i], lines.ends()[i], batch));
+            batch.clear();
+        }
+    }
+
+    @Benchmark
+    public void parseInterning(Blackhole blackhole) {
+        // The single pass path, which assigns user ids while parsing
+        SourceParser interning = new SourceParser(Year.of(year), interner::intern, mod -> {
+        });
+        byte[] buffer = lines.buffer();
+        for (int i = 0; i < lines.count(); i++) {
+            blackhole.consume(interning.parse(buffer, lines.starts()[i], lines.ends()[i], batch));
+            batch.clear();
+        }
+    }
+
+}
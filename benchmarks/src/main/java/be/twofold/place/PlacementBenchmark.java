@@ -0,0 +1,50 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+import java.time.*;
+import java.util.concurrent.*;
+
+/**
+ * Converting single placements from and to the lines of the text format
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(PlacementBenchmark.Count)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlacementBenchmark {
+
+    static final int Count = 100_000;
+
+    private Placement[] placements;
+    private String[] lines;
+
+    @Setup
+    public void setup() {
+        placements = new DataGenerator(Year.of(2022), 10_000, 42).placements(Count, 42);
+        lines = new String[placements.length];
+        for (int i = 0; i < placements.length; i++) {
+            lines[i] = placements[i].toString();
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(Placement.parse(line));
+        }
+    }
+
+    @Benchmark
+    public void format(Blackhole blackhole) {
+        for (Placement placement : placements) {
+            blackhole.consume(placement.toString());
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reading simplified placements back, which is where rendering starts
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(ReadBenchmark.Count)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+
+    static final int Count = 1_000_000;
+
+    @Param({"text", "binary"})
+    public String format;
+
+    private Path directory;
+    private PlacementReader reader;
+
+    @Setup
+    public void setup() throws IOException {
+        Placement[] placements = new DataGenerator(Year.of(2022), 100_000, 42).placements(Count, 42);
+        Arrays.parallelSort(placements);
+
+        directory = Files.createTempDirectory("place-read");
+        PlacementFormat placementFormat = PlacementFormat.parse(format);
+        Path path = placementFormat.resolve(directory);
+        try (PlacementWriter writer = placementFormat.newWriter(path, Year.of(2022))) {
+            for (Placement placement : placements) {
+                writer.write(placement);
+            }
+        }
+        reader = placementFormat.newReader(path);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Benchmarks.delete(directory);
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) throws IOException {
+        reader.read((timestamp, user, x, y, color) -> blackhole.consume(timestamp + user + x + y + color));
+    }
+
+}
@@ -0,0 +1,80 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Rendering placements that are already in memory, so only placing pixels and dumping frames is measured
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RenderBenchmark {
+
+    private static final long FrameMillis = 300_000;
+
+    @Param({"1000000"})
+    public int count;
+
+    /**
+     * The number of frames the placements are spread over, each of them is written as an image
+     */
+    @Param({"1", "24"})
+    public int frames;
+
+    @Param({"png", "delta", "y4m"})
+    public String output;
+
+    private PlacementReader reader;
+    private Path directory;
+
+    @Setup
+    public void setup() {
+        Placement[] placements = new DataGenerator(Year.of(2022), 100_000, 42).placements(count, 42);
+        long start = placements[0].getTimestamp() / FrameMillis * FrameMillis + 1;
+        long span = frames * FrameMillis - 2;
+        reader = new PlacementReader() {
+            @Override
+            public void read(long fromRecord, long toRecord, long untilTimestamp, PlacementConsumer consumer) {
+                for (int i = (int) fromRecord; i < Math.min(placements.length, toRecord); i++) {
+                    Placement placement = placements[i];
+                    long timestamp = start + span * i / placements.length;
+                    if (timestamp > untilTimestamp) {
+                        return;
+                    }
+                    consumer.accept(timestamp, placement.getUser(), placement.getX(), placement.getY(), placement.getColor());
+                }
+            }
+
+            @Override
+            public long count() {
+                return placements.length;
+            }
+        };
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws IOException {
+        directory = Files.createTempDirectory("place-render");
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownInvocation() throws IOException {
+        Benchmarks.delete(directory);
+    }
+
+    @Benchmark
+    public void render() throws IOException {
+        new Renderer(reader, Mods.of(List.of()), directory, Year.of(2022), Options.parse(List.of("--output=" + output))).render();
+    }
+
+}
@@ -0,0 +1,75 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The in memory sort of all placements, before they are written out
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SortBenchmark {
+
+    @Param({"1000000"})
+    public int count;
+
+    /**
+     * The order the placements arrive in: as in the source files, nearly sorted, or shuffled like the chunks of
+     * several files parsed in parallel
+     */
+    @Param({"source", "shuffled"})
+    public String order;
+
+    private Placement[] placements;
+    private Placement[] copy;
+    private PlacementColumns columns;
+
+    @Setup
+    public void setup() {
+        placements = new DataGenerator(Year.of(2022), 100_000, 42).placements(count, 42);
+        if ("shuffled".equals(order)) {
+            Collections.shuffle(Arrays.asList(placements), new Random(42));
+        }
+        columns = new PlacementColumns(count);
+        PlacementBatch batch = new PlacementBatch();
+        for (Placement placement : placements) {
+            batch.add(placement);
+            if (batch.isFull()) {
+                columns.addAll(batch);
+                batch.clear();
+            }
+        }
+        columns.addAll(batch);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        copy = placements.clone();
+    }
+
+    @Benchmark
+    public Placement[] parallelSort() {
+        Arrays.parallelSort(copy);
+        return copy;
+    }
+
+    @Benchmark
+    public Placement[] sort() {
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    @Benchmark
+    public int[] radixSort() {
+        return new RadixSorter(Runtime.getRuntime().availableProcessors()).sort(columns);
+    }
+
+}
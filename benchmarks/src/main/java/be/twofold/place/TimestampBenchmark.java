@@ -0,0 +1,67 @@
+package be.twofold.place;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+import java.time.*;
+import java.time.format.*;
+import java.time.temporal.*;
+import java.util.concurrent.*;
+
+/**
+ * Parsing of the timestamps at the start of every source line, against plain {@code java.time} parsing
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(TimestampBenchmark.LineCount)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimestampBenchmark {
+
+    static final int LineCount = 100_000;
+
+    private static final DateTimeFormatter Formatter = new DateTimeFormatterBuilder()
+        .appendPattern("yyyy-MM-dd HH:mm:ss")
+        .optionalStart()
+        .appendFraction(ChronoField.NANO_OF_SECOND, 1, 3, true)
+        .optionalEnd()
+        .appendLiteral(" UTC")
+        .toFormatter();
+
+    @Param({"2017", "2022"})
+    public int year;
+
+    private DataGenerator.Lines lines;
+    private int[] ends;
+    private String[] strings;
+    private final TimestampParser parser = new TimestampParser();
+
+    @Setup
+    public void setup() {
+        lines = new DataGenerator(Year.of(year), 10_000, 42).lines(LineCount, 42);
+        ends = new int[lines.count()];
+        strings = new String[lines.count()];
+        for (int i = 0; i < lines.count(); i++) {
+            ends[i] = Bytes.indexOf(lines.buffer(), lines.starts()[i], lines.ends()[i], (byte) ',');
+            strings[i] = new String(lines.buffer(), lines.starts()[i], ends[i] - lines.starts()[i]);
+        }
+    }
+
+    @Benchmark
+    public void timestampParser(Blackhole blackhole) {
+        byte[] buffer = lines.buffer();
+        for (int i = 0; i < lines.count(); i++) {
+            blackhole.consume(parser.parse(buffer, lines.starts()[i], ends[i]));
+        }
+    }
+
+    @Benchmark
+    public void javaTime(Blackhole blackhole) {
+        for (String s : strings) {
+            blackhole.consume(LocalDateTime.parse(s, Formatter).toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+    }
+
+}
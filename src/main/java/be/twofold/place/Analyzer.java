@@ -0,0 +1,354 @@
+package be.twofold.place;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/**
+ * Aggregates the placements in a single pass: the placements and the last placement of every pixel, the placements
+ * of every user, and how much every color is used over time. The placements are split in ranges that are read in
+ * parallel, each into its own aggregate, and the aggregates are merged at the end. Writes heatmaps of the pixels,
+ * and the rest as CSV files.
+ */
+final class Analyzer {
+
+    private static final int TopUsers = 100;
+
+    private final PlacementReader reader;
+    private final Path usersPath;
+    private final Path targetDirectory;
+    private final CanvasLayout layout;
+    private final CanvasLayout.Phase bounds;
+    private final long intervalMillis;
+    private final int threads;
+    private final PngEncoder encoder;
+
+    Analyzer(PlacementReader reader, Path usersPath, Path targetDirectory, Year year, Options options) {
+        this.reader = Objects.requireNonNull(reader);
+        this.usersPath = Objects.requireNonNull(usersPath);
+        this.targetDirectory = Objects.requireNonNull(targetDirectory);
+        this.layout = CanvasLayout.forYear(year);
+        this.bounds = layout.bounds();
+        this.intervalMillis = options.getLong("analyze-interval", 60) * 60 * 1000;
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Analyze interval must be positive");
+        }
+        this.threads = options.getInt("analyze-threads", Runtime.getRuntime().availableProcessors());
+        if (threads < 1) {
+            throw new IllegalArgumentException("Analyze threads must be positive");
+        }
+        this.encoder = new PngEncoder(
+            options.getInt("png-level", 1),
+            PngEncoder.Filter.parse(options.getString("png-filter", "none")),
+            options.getInt("png-chunks", Runtime.getRuntime().availableProcessors()));
+    }
+
+    void analyze() throws IOException {
+        long start = System.nanoTime();
+        long count = reader.count();
+        int users = UsersFile.count(usersPath);
+        System.out.println("Analyzing " + count + " placements by " + users + " users");
+
+        Aggregate total = aggregate(count, users);
+        System.out.println("Aggregated in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+
+        writeHeatmaps(total);
+        writeUsers(total);
+        writeColors(total);
+        writeSummary(total, users);
+        System.out.println("Analyzed in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+    }
+
+    private Aggregate aggregate(long count, int users) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Aggregate>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                long from = count * i / threads;
+                long to = count * (i + 1) / threads;
+                futures.add(executor.submit(() -> {
+                    Aggregate aggregate = new Aggregate(users);
+                    reader.readBatches(from, to, Long.MAX_VALUE, aggregate::accept);
+                    return aggregate;
+                }));
+            }
+
+            Aggregate total = futures.get(0).get();
+            for (int i = 1; i < futures.size(); i++) {
+                total.merge(futures.get(i).get());
+            }
+            return total;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the placements per pixel on a log scale, and the time of the last placement per pixel on a linear one.
+     * Pixels without placements are black.
+     */
+    private void writeHeatmaps(Aggregate total) throws IOException {
+        System.out.println("Writing heatmaps");
+        IndexColorModel colorModel = heatColorModel();
+        byte[] pixels = new byte[total.counts.length];
+
+        int max = Arrays.stream(total.counts).max().orElse(0);
+        double scale = max > 1 ? 254 / Math.log(max) : 0;
+        for (int i = 0; i < pixels.length; i++) {
+            int count = total.counts[i];
+            pixels[i] = (byte) (count == 0 ? 0 : 255 - (int) Math.round((Math.log(max) - Math.log(count)) * scale));
+        }
+        encoder.write(pixels, bounds.width(), bounds.height(), colorModel, targetDirectory.resolve("heatmap_placements.png"));
+
+        long first = total.first / 1000;
+        long span = total.last / 1000 - first;
+        for (int i = 0; i < pixels.length; i++) {
+            if (total.counts[i] == 0) {
+                pixels[i] = 0;
+            } else {
+                pixels[i] = (byte) (span == 0 ? 255 : 1 + (total.lastSeconds[i] - first) * 254 / span);
+            }
+        }
+        encoder.write(pixels, bounds.width(), bounds.height(), colorModel, targetDirectory.resolve("heatmap_last_placed.png"));
+    }
+
+    /**
+     * Black for nothing, then from dark red over yellow to white
+     */
+    private static IndexColorModel heatColorModel() {
+        byte[] r = new byte[256];
+        byte[] g = new byte[256];
+        byte[] b = new byte[256];
+        for (int i = 1; i < 256; i++) {
+            int value = (i - 1) * 3 * 255 / 254;
+            r[i] = (byte) Math.min(64 + value, 255);
+            g[i] = (byte) Math.max(0, Math.min(value - 255, 255));
+            b[i] = (byte) Math.max(0, value - 510);
+        }
+        return new IndexColorModel(8, 256, r, g, b);
+    }
+
+    /**
+     * Writes the placements of every user that placed any, in the order of users.txt, and the users with the most
+     * placements, both while going through the users once
+     */
+    private void writeUsers(Aggregate total) throws IOException {
+        System.out.println("Writing users");
+
+        // Sort on the count, breaking ties on the lowest id
+        long[] keys = new long[total.users.length - 1];
+        for (int id = 1; id < total.users.length; id++) {
+            keys[id - 1] = (long) total.users[id] << 32 | (0xFFFFFFFFL - id);
+        }
+        Arrays.sort(keys);
+        int top = Math.min(TopUsers, keys.length);
+        int[] topIds = new int[top];
+        for (int i = 0; i < top; i++) {
+            topIds[i] = (int) (0xFFFFFFFFL - (keys[keys.length - 1 - i] & 0xFFFFFFFFL));
+        }
+        int[] ranks = new int[total.users.length];
+        for (int i = 0; i < top; i++) {
+            ranks[topIds[i]] = i + 1;
+        }
+
+        String[] topNames = new String[top];
+        try (Stream<String> lines = Files.lines(usersPath);
+             BufferedWriter writer = Files.newBufferedWriter(targetDirectory.resolve("users.csv"))) {
+            writer.write("user,placements\n");
+            int[] id = {0};
+            lines.forEachOrdered(user -> {
+                id[0]++;
+                try {
+                    if (total.users[id[0]] > 0) {
+                        writer.write(user + "," + total.users[id[0]] + "\n");
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (ranks[id[0]] > 0) {
+                    topNames[ranks[id[0]] - 1] = user;
+                }
+            });
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(targetDirectory.resolve("top_users.csv"))) {
+            writer.write("rank,user,placements\n");
+            for (int i = 0; i < top && total.users[topIds[i]] > 0; i++) {
+                writer.write((i + 1) + "," + topNames[i] + "," + total.users[topIds[i]] + "\n");
+            }
+        }
+    }
+
+    /**
+     * Writes the placements of every color per interval, with a column per color of the final palette
+     */
+    private void writeColors(Aggregate total) throws IOException {
+        System.out.println("Writing colors");
+        IndexColorModel colorModel = layout.colorModel(layout.states());
+        int colors = bounds.colors();
+        try (BufferedWriter writer = Files.newBufferedWriter(targetDirectory.resolve("colors.csv"))) {
+            StringBuilder builder = new StringBuilder("time");
+            for (int color = 0; color < colors; color++) {
+                builder.append(String.format(",%06X", colorModel.getRGB(color) & 0xFFFFFF));
+            }
+            writer.write(builder.append('\n').toString());
+
+            for (int bucket = 0; bucket < total.buckets; bucket++) {
+                builder.setLength(0);
+                builder.append(Instant.ofEpochMilli((total.firstBucket + bucket) * intervalMillis));
+                for (int color = 0; color < colors; color++) {
+                    builder.append(',').append(total.colors[bucket * colors + color]);
+                }
+                writer.write(builder.append('\n').toString());
+            }
+        }
+    }
+
+    private void writeSummary(Aggregate total, int users) throws IOException {
+        int activeUsers = 0;
+        for (int id = 1; id < total.users.length; id++) {
+            if (total.users[id] > 0) {
+                activeUsers++;
+            }
+        }
+        int pixelsPlaced = 0;
+        int mostPlaced = 0;
+        for (int i = 0; i < total.counts.length; i++) {
+            if (total.counts[i] > 0) {
+                pixelsPlaced++;
+            }
+            if (total.counts[i] > total.counts[mostPlaced]) {
+                mostPlaced = i;
+            }
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(targetDirectory.resolve("summary.csv"))) {
+            writer.write("key,value\n");
+            writer.write("placements," + total.placements + "\n");
+            writer.write("first," + (total.placements > 0 ? Instant.ofEpochMilli(total.first) : "") + "\n");
+            writer.write("last," + (total.placements > 0 ? Instant.ofEpochMilli(total.last) : "") + "\n");
+            writer.write("users," + users + "\n");
+            writer.write("active_users," + activeUsers + "\n");
+            writer.write("pixels," + total.counts.length + "\n");
+            writer.write("pixels_placed," + pixelsPlaced + "\n");
+            writer.write("most_placed_x," + (mostPlaced % bounds.width() + bounds.minX()) + "\n");
+            writer.write("most_placed_y," + (mostPlaced / bounds.width() + bounds.minY()) + "\n");
+            writer.write("most_placed_count," + total.counts[mostPlaced] + "\n");
+        }
+    }
+
+    /**
+     * The aggregates of a range of placements. Pixels are indexed in the final canvas, users by their id, and
+     * colors per interval from the first interval of the range.
+     */
+    private final class Aggregate {
+        private final int[] counts;
+        private final int[] lastSeconds;
+        private final int[] users;
+        private int[] colors = new int[0];
+        private long firstBucket;
+        private int buckets;
+        private long placements;
+        private long first = Long.MAX_VALUE;
+        private long last = Long.MIN_VALUE;
+
+        private Aggregate(int users) {
+            this.counts = new int[bounds.width() * bounds.height()];
+            this.lastSeconds = new int[counts.length];
+            this.users = new int[users + 1];
+        }
+
+        private void accept(PlacementBatch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                accept(batch.timestamp(i), batch.user(i), batch.x(i), batch.y(i), batch.color(i));
+            }
+        }
+
+        private void accept(long timestamp, int user, int x, int y, int color) {
+            if (!bounds.contains(x, y)) {
+                throw new IllegalArgumentException("Placement outside of the canvas: " + x + "," + y);
+            }
+            if (user < 1 || user >= users.length) {
+                throw new IllegalArgumentException("User " + user + " is not in " + usersPath.getFileName());
+            }
+
+            int value = color - layout.colorBase();
+            if (value < 0 || value >= bounds.colors()) {
+                throw new IllegalArgumentException("Color " + color + " is not in the palette");
+            }
+
+            int index = (y - bounds.minY()) * bounds.width() + (x - bounds.minX());
+            counts[index]++;
+            lastSeconds[index] = Math.max(lastSeconds[index], (int) (timestamp / 1000));
+            users[user]++;
+            int bucket = bucket(timestamp / intervalMillis);
+            colors[bucket * bounds.colors() + value]++;
+
+            placements++;
+            first = Math.min(first, timestamp);
+            last = Math.max(last, timestamp);
+        }
+
+        /**
+         * Returns the index of an interval, growing the colors so it fits
+         */
+        private int bucket(long bucket) {
+            if (buckets == 0) {
+                firstBucket = bucket;
+            }
+            if (bucket < firstBucket) {
+                int shift = Math.toIntExact(firstBucket - bucket);
+                int[] grown = new int[(buckets + shift) * bounds.colors()];
+                System.arraycopy(colors, 0, grown, shift * bounds.colors(), buckets * bounds.colors());
+                colors = grown;
+                buckets += shift;
+                firstBucket = bucket;
+            }
+            int index = Math.toIntExact(bucket - firstBucket);
+            if (index >= buckets) {
+                buckets = index + 1;
+                if (buckets * bounds.colors() > colors.length) {
+                    colors = Arrays.copyOf(colors, Math.max(buckets * 2, 16) * bounds.colors());
+                }
+            }
+            return index;
+        }
+
+        private void merge(Aggregate other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+                lastSeconds[i] = Math.max(lastSeconds[i], other.lastSeconds[i]);
+            }
+            for (int i = 0; i < users.length; i++) {
+                users[i] += other.users[i];
+            }
+            if (other.buckets > 0) {
+                bucket(other.firstBucket);
+                int offset = bucket(other.firstBucket + other.buckets - 1) - (other.buckets - 1);
+                for (int i = 0; i < other.buckets * bounds.colors(); i++) {
+                    colors[offset * bounds.colors() + i] += other.colors[i];
+                }
+            }
+            placements += other.placements;
+            first = Math.min(first, other.first);
+            last = Math.max(last, other.last);
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package be.twofold.place;
+
+import java.nio.*;
+
+/**
+ * Header of the binary placements file.
+ * <p>
+ * The file consists of this header, followed by blocks of {@link #BlockSize} records. Every block stores its
+ * records column by column: timestamp delta ({@code int}), user ({@code int}), x ({@code short}),
+ * y ({@code short}) and color ({@code byte}). The last block is padded, so record {@code i} can be found directly.
+ */
+record BinaryHeader(
+    int year,
+    short minX,
+    short minY,
+    short maxX,
+    short maxY,
+    long count,
+    long baseTimestamp
+) {
+    static final int Magic = 0x42434C50; // "PLCB"
+    static final int Version = 1;
+    static final int Size = 64;
+    static final int BlockSize = 4096;
+    static final int RecordSize = 4 + 4 + 2 + 2 + 1;
+    static final int BlockBytes = BlockSize * RecordSize;
+
+    static final int TimestampOffset = 0;
+    static final int UserOffset = TimestampOffset + BlockSize * 4;
+    static final int XOffset = UserOffset + BlockSize * 4;
+    static final int YOffset = XOffset + BlockSize * 2;
+    static final int ColorOffset = YOffset + BlockSize * 2;
+
+    static BinaryHeader read(ByteBuffer buffer) {
+        buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != Magic) {
+            throw new IllegalArgumentException("Not a binary placements file");
+        }
+        if (buffer.getShort(4) != Version) {
+            throw new IllegalArgumentException("Unsupported version: " + buffer.getShort(4));
+        }
+        if (buffer.getInt(8) != BlockSize) {
+            throw new IllegalArgumentException("Unsupported block size: " + buffer.getInt(8));
+        }
+        return new BinaryHeader(
+            buffer.getShort(6),
+            buffer.getShort(12),
+            buffer.getShort(14),
+            buffer.getShort(16),
+            buffer.getShort(18),
+            buffer.getLong(24),
+            buffer.getLong(32)
+        );
+    }
+
+    ByteBuffer toBuffer() {
+        return ByteBuffer.allocate(Size)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(0, Magic)
+            .putShort(4, (short) Version)
+            .putShort(6, (short) year)
+            .putInt(8, BlockSize)
+            .putShort(12, minX)
+            .putShort(14, minY)
+            .putShort(16, maxX)
+            .putShort(18, maxY)
+            .putLong(24, count)
+            .putLong(32, baseTimestamp);
+    }
+
+    long blockCount() {
+        return (count + BlockSize - 1) / BlockSize;
+    }
+
+    static long blockPosition(long block) {
+        return Size + block * BlockBytes;
+    }
+}
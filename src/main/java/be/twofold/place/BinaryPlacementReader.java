@@ -0,0 +1,104 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Reads the binary placements by mapping the file in windows of whole blocks. The columns of a block are copied
+ * into a batch in bulk, so nothing is allocated per record.
+ */
+final class BinaryPlacementReader implements PlacementReader {
+
+    private static final int BlocksPerWindow = 16 * 1024;
+
+    private final Path path;
+
+    BinaryPlacementReader(Path path) {
+        this.path = Objects.requireNonNull(path);
+    }
+
+    @Override
+    public void read(long fromRecord, long toRecord, long untilTimestamp, PlacementConsumer consumer) throws IOException {
+        readBatches(fromRecord, toRecord, untilTimestamp, batch -> {
+            for (int i = 0; i < batch.size(); i++) {
+                consumer.accept(batch.timestamp(i), batch.user(i), batch.x(i), batch.y(i), batch.color(i));
+            }
+        });
+    }
+
+    /**
+     * Reads a block at a time, copying the columns of the block in bulk
+     */
+    @Override
+    public void readBatches(long fromRecord, long toRecord, long untilTimestamp, Consumer<PlacementBatch> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            BinaryHeader header = BinaryHeader.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryHeader.Size));
+            long records = Math.min(header.count(), toRecord);
+            long blockCount = (records + BinaryHeader.BlockSize - 1) / BinaryHeader.BlockSize;
+            long firstBlock = fromRecord / BinaryHeader.BlockSize;
+            PlacementBatch batch = new PlacementBatch(BinaryHeader.BlockSize);
+
+            for (long block = firstBlock; block < blockCount; block += BlocksPerWindow) {
+                int blocks = (int) Math.min(BlocksPerWindow, blockCount - block);
+                long position = BinaryHeader.blockPosition(block);
+                ByteBuffer window = channel
+                    .map(FileChannel.MapMode.READ_ONLY, position, (long) blocks * BinaryHeader.BlockBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+                for (int i = 0; i < blocks; i++) {
+                    long remaining = records - (block + i) * BinaryHeader.BlockSize;
+                    int count = (int) Math.min(remaining, BinaryHeader.BlockSize);
+                    int from = block + i == firstBlock ? (int) (fromRecord % BinaryHeader.BlockSize) : 0;
+                    boolean complete = readBlock(window, i * BinaryHeader.BlockBytes, from, count, header.baseTimestamp(), untilTimestamp, batch);
+                    if (!batch.isEmpty()) {
+                        consumer.accept(batch);
+                    }
+                    if (!complete) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the batch with the records of a block, and returns false when a record is past the timestamp to read
+     * until
+     */
+    private static boolean readBlock(ByteBuffer buffer, int offset, int from, int count, long baseTimestamp, long untilTimestamp, PlacementBatch batch) {
+        int rows = Math.max(count - from, 0);
+        long[] timestamps = batch.timestamps();
+        int timestampOffset = offset + BinaryHeader.TimestampOffset + from * 4;
+        for (int i = 0; i < rows; i++) {
+            long timestamp = baseTimestamp + buffer.getInt(timestampOffset + i * 4);
+            if (timestamp > untilTimestamp) {
+                rows = i;
+                count = -1;
+                break;
+            }
+            timestamps[i] = timestamp;
+        }
+
+        buffer.slice(offset + BinaryHeader.UserOffset + from * 4, rows * 4)
+            .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(batch.users(), 0, rows);
+        buffer.slice(offset + BinaryHeader.XOffset + from * 2, rows * 2)
+            .order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(batch.xs(), 0, rows);
+        buffer.slice(offset + BinaryHeader.YOffset + from * 2, rows * 2)
+            .order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(batch.ys(), 0, rows);
+        buffer.get(offset + BinaryHeader.ColorOffset + from, batch.colors(), 0, rows);
+        batch.setSize(rows);
+        return count >= 0;
+    }
+
+    @Override
+    public long count() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return BinaryHeader.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryHeader.Size)).count();
+        }
+    }
+
+}
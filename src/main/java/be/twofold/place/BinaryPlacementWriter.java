@@ -0,0 +1,99 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+final class BinaryPlacementWriter implements PlacementWriter {
+
+    private final FileChannel channel;
+    private final ByteBuffer block = ByteBuffer
+        .allocate(BinaryHeader.BlockBytes)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    private final int year;
+
+    private long count;
+    private long baseTimestamp;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private short minX = Short.MAX_VALUE;
+    private short minY = Short.MAX_VALUE;
+    private short maxX = Short.MIN_VALUE;
+    private short maxY = Short.MIN_VALUE;
+
+    BinaryPlacementWriter(Path path, int year) throws IOException {
+        this.channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.channel.position(BinaryHeader.Size);
+        this.year = year;
+    }
+
+    @Override
+    public void write(Placement placement) throws IOException {
+        write(placement.getTimestamp(), placement.getUser(), (short) placement.getX(), (short) placement.getY(), placement.getColor());
+    }
+
+    @Override
+    public void write(PlacementBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            write(batch.timestamp(i), batch.user(i), (short) batch.x(i), (short) batch.y(i), batch.color(i));
+        }
+    }
+
+    private void write(long timestamp, int user, short x, short y, int color) throws IOException {
+        if (count == 0) {
+            baseTimestamp = timestamp;
+        }
+        if (timestamp < lastTimestamp) {
+            throw new IllegalArgumentException("Placements must be written in timestamp order");
+        }
+        long delta = timestamp - baseTimestamp;
+        if (delta > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Timestamp out of range: " + timestamp);
+        }
+        lastTimestamp = timestamp;
+
+        minX = (short) Math.min(minX, x);
+        minY = (short) Math.min(minY, y);
+        maxX = (short) Math.max(maxX, x);
+        maxY = (short) Math.max(maxY, y);
+
+        int index = (int) (count % BinaryHeader.BlockSize);
+        block.putInt(BinaryHeader.TimestampOffset + index * 4, (int) delta);
+        block.putInt(BinaryHeader.UserOffset + index * 4, user);
+        block.putShort(BinaryHeader.XOffset + index * 2, x);
+        block.putShort(BinaryHeader.YOffset + index * 2, y);
+        block.put(BinaryHeader.ColorOffset + index, (byte) color);
+        count++;
+
+        if (index == BinaryHeader.BlockSize - 1) {
+            flushBlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            if (count % BinaryHeader.BlockSize != 0) {
+                flushBlock();
+            }
+            BinaryHeader header = count == 0
+                ? new BinaryHeader(year, (short) 0, (short) 0, (short) 0, (short) 0, 0, 0)
+                : new BinaryHeader(year, minX, minY, maxX, maxY, count, baseTimestamp);
+            channel.write(header.toBuffer(), 0);
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        block.clear();
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+        block.clear();
+        Arrays.fill(block.array(), (byte) 0);
+    }
+
+}
@@ -0,0 +1,126 @@
+package be.twofold.place;
+
+import java.lang.invoke.*;
+import java.nio.*;
+
+/**
+ * Helpers to scan and decode ASCII text straight from byte arrays
+ */
+final class Bytes {
+
+    private static final VarHandle LongView = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long Ones = 0x0101010101010101L;
+    private static final long Highs = 0x8080808080808080L;
+
+    private Bytes() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the index of the first occurrence of value in [from, to), or {@code to} if there is none.
+     * <p>
+     * Scans 8 bytes at a time, by checking a whole word for a zero byte after xor-ing it with the value.
+     */
+    static int indexOf(byte[] buffer, int from, int to, byte value) {
+        long pattern = Ones * (value & 0xFF);
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = (long) LongView.get(buffer, i) ^ pattern;
+            long found = (word - Ones) & ~word & Highs;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Returns the index of the last occurrence of value in [from, to), or {@code -1} if there is none
+     */
+    static int lastIndexOf(byte[] buffer, int from, int to, byte value) {
+        long pattern = Ones * (value & 0xFF);
+        int i = to;
+        for (; i - 8 >= from; i -= 8) {
+            long word = (long) LongView.get(buffer, i - 8) ^ pattern;
+            long found = (word - Ones) & ~word & Highs;
+            if (found != 0) {
+                // The zero byte test can flag bytes above a real match, so confirm from the top down
+                for (int j = i - 1; j >= i - 8; j--) {
+                    if (buffer[j] == value) {
+                        return j;
+                    }
+                }
+            }
+        }
+        for (i--; i >= from; i--) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a decimal integer, with an optional minus sign
+     */
+    static int parseInt(byte[] buffer, int from, int to) {
+        boolean negative = from < to && buffer[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to) {
+            throw new NumberFormatException("Empty number");
+        }
+
+        int result = 0;
+        for (; i < to; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid digit: " + (char) buffer[i]);
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parses a fixed number of decimal digits, without a sign
+     */
+    static int parseDigits(byte[] buffer, int from, int count) {
+        int result = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid digit: " + (char) buffer[i]);
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    /**
+     * Parses hexadecimal digits, in either case
+     */
+    static int parseHex(byte[] buffer, int from, int to) {
+        int result = 0;
+        for (int i = from; i < to; i++) {
+            int c = buffer[i];
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                throw new NumberFormatException("Invalid hex digit: " + (char) c);
+            }
+            result = result << 4 | digit;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,151 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.awt.image.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * The pixels of the canvas, as palette indices. The pixels of the final canvas are allocated up front, and the
+ * canvas moves through the phases of its layout as placements go beyond its bounds. The tiles that change are
+ * tracked, so writers can pick out what changed between frames.
+ */
+final class Canvas {
+
+    private final CanvasLayout layout;
+    private final CanvasLayout.Phase bounds;
+    private final byte[] pixels;
+    private CanvasLayout.Phase phase;
+    private byte[] window;
+    private boolean[] dirtyTiles;
+    private int tilesX;
+    private int state = 0;
+
+    Canvas(CanvasLayout layout) {
+        this.layout = Objects.requireNonNull(layout);
+        this.bounds = layout.bounds();
+        this.pixels = new byte[Math.multiplyExact(bounds.width(), bounds.height())];
+        Arrays.fill(pixels, layout.background());
+        nextState();
+    }
+
+    static Canvas forYear(Year year) {
+        return new Canvas(CanvasLayout.forYear(year));
+    }
+
+    void place(long timestamp, int x, int y, int color) {
+        advance(timestamp, x, y);
+
+        int index = (y - bounds.minY()) * bounds.width() + (x - bounds.minX());
+        byte value = (byte) (color - layout.colorBase());
+        if (pixels[index] != value) {
+            pixels[index] = value;
+            dirtyTiles[((y - phase.minY()) / Frame.TileSize) * tilesX + (x - phase.minX()) / Frame.TileSize] = true;
+        }
+    }
+
+    /**
+     * Fills a mod, as far as it falls in the final canvas. Mods don't move the canvas on to another phase.
+     */
+    void fill(Mod mod) {
+        byte value = (byte) (mod.getColor() - layout.colorBase());
+        Mods.fill(mod, value, pixels, bounds.minX(), bounds.minY(), bounds.width(), bounds.height());
+
+        int fromX = Math.max(mod.getMinX(), phase.minX()) - phase.minX();
+        int toX = Math.min(mod.getMaxX(), phase.maxX()) - phase.minX();
+        int fromY = Math.max(mod.getMinY(), phase.minY()) - phase.minY();
+        int toY = Math.min(mod.getMaxY(), phase.maxY()) - phase.minY();
+        if (fromX > toX || fromY > toY) {
+            return;
+        }
+        for (int y = fromY / Frame.TileSize; y <= toY / Frame.TileSize; y++) {
+            Arrays.fill(dirtyTiles, y * tilesX + fromX / Frame.TileSize, y * tilesX + toX / Frame.TileSize + 1, true);
+        }
+    }
+
+    /**
+     * Moves on to the phase a placement falls in, if it's not in the current one
+     */
+    void advance(long timestamp, int x, int y) {
+        while (state < layout.states() && (layout.phase(state + 1).start() <= timestamp || !phase.contains(x, y))) {
+            nextState();
+        }
+        if (!phase.contains(x, y)) {
+            throw new IllegalArgumentException("Placement outside of the canvas: " + x + "," + y);
+        }
+    }
+
+    int state() {
+        return state;
+    }
+
+    CanvasLayout layout() {
+        return layout;
+    }
+
+    int width() {
+        return phase.width();
+    }
+
+    int height() {
+        return phase.height();
+    }
+
+    /**
+     * Returns the pixels of the final canvas, whatever the current phase is
+     */
+    byte[] pixels() {
+        return pixels;
+    }
+
+    IndexColorModel colorModel() {
+        return layout.colorModel(state);
+    }
+
+    /**
+     * Returns the canvas as a frame, which shares the dirty tiles of the canvas, and its pixels when the canvas has
+     * reached its final size
+     */
+    Frame frame(long cutoff) {
+        byte[] framePixels = pixels;
+        if (window != null) {
+            int offset = (phase.minY() - bounds.minY()) * bounds.width() + (phase.minX() - bounds.minX());
+            for (int y = 0; y < phase.height(); y++) {
+                System.arraycopy(pixels, offset + y * bounds.width(), window, y * phase.width(), phase.width());
+            }
+            framePixels = window;
+        }
+        return new Frame(cutoff, state, width(), height(), framePixels, colorModel(), dirtyTiles);
+    }
+
+    void clearDirtyTiles() {
+        Arrays.fill(dirtyTiles, false);
+    }
+
+    /**
+     * Sets the canvas to a state and its pixels, which were taken from a canvas with the same layout
+     */
+    void restore(int state, byte[] pixels) {
+        if (state < this.state) {
+            throw new IllegalStateException("Can't go back from state " + this.state + " to " + state);
+        }
+        while (this.state < state) {
+            nextState();
+        }
+        if (pixels.length != this.pixels.length) {
+            throw new IllegalArgumentException("Expected " + this.pixels.length + " pixels, but got " + pixels.length);
+        }
+        System.arraycopy(pixels, 0, this.pixels, 0, pixels.length);
+        Arrays.fill(dirtyTiles, true);
+    }
+
+    private void nextState() {
+        state++;
+        phase = layout.phase(state);
+        window = phase.width() == bounds.width() && phase.height() == bounds.height() ? null : new byte[phase.width() * phase.height()];
+        tilesX = Frame.tiles(phase.width());
+        dirtyTiles = new boolean[tilesX * Frame.tiles(phase.height())];
+    }
+
+}
@@ -0,0 +1,154 @@
+package be.twofold.place;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.time.*;
+import java.util.List;
+import java.util.*;
+
+/**
+ * How the canvas of a year grows, as read from its properties.
+ * <p>
+ * Every phase has the bounds of the canvas in placement coordinates, inclusive, and the number of colors of the
+ * palette. A phase starts at its timestamp when it has one, or at the first placement outside the phase before it.
+ * The last phase is the final canvas, and holds all the others. Placements store color ids starting at the color
+ * base, and the canvas starts out in the background color.
+ */
+final class CanvasLayout {
+
+    private final List<Color> colors;
+    private final List<Phase> phases;
+    private final IndexColorModel[] colorModels;
+    private final int colorBase;
+    private final byte background;
+
+    CanvasLayout(List<Color> colors, List<Phase> phases, int colorBase, int background) {
+        this.colors = List.copyOf(colors);
+        this.phases = List.copyOf(phases);
+        this.colorBase = colorBase;
+        this.background = (byte) background;
+        if (phases.isEmpty()) {
+            throw new IllegalArgumentException("A canvas needs at least one phase");
+        }
+
+        Phase last = phases.get(phases.size() - 1);
+        this.colorModels = new IndexColorModel[phases.size()];
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            if (phase.minX < last.minX || phase.minY < last.minY || phase.maxX > last.maxX || phase.maxY > last.maxY) {
+                throw new IllegalArgumentException("Phase " + (i + 1) + " is outside of the final canvas");
+            }
+            if (phase.colors > colors.size()) {
+                throw new IllegalArgumentException("Phase " + (i + 1) + " has more colors than the palette");
+            }
+            colorModels[i] = Utils.fromColors(colors.subList(0, phase.colors));
+        }
+    }
+
+    static CanvasLayout forYear(Year year) {
+        List<Color> colors = switch (year.getValue()) {
+            case 2017 -> Renderer.Colors2017;
+            case 2022 -> Renderer.Colors2022;
+            case 2023 -> Renderer.Colors2023;
+            default -> throw new IllegalArgumentException("Year must be 2017, 2022 or 2023");
+        };
+        return fromProperties(colors, loadProperties(year));
+    }
+
+    static CanvasLayout fromProperties(List<Color> colors, Properties properties) {
+        List<Phase> phases = new ArrayList<>();
+        for (int i = 1; properties.containsKey("phase." + i); i++) {
+            String[] parts = properties.getProperty("phase." + i).split(",");
+            if (parts.length != 5) {
+                throw new IllegalArgumentException("Phase must look like minX,minY,maxX,maxY,colors: " + properties.getProperty("phase." + i));
+            }
+            int[] values = Arrays.stream(parts).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+            String start = properties.getProperty("phase." + i + ".start");
+            phases.add(new Phase(values[0], values[1], values[2], values[3], values[4],
+                start != null ? Instant.parse(start).toEpochMilli() : Long.MAX_VALUE));
+        }
+
+        int background = Integer.parseInt(properties.getProperty("background", "FFFFFF"), 16);
+        int index = 0;
+        while (index < colors.size() && (colors.get(index).getRGB() & 0xFFFFFF) != background) {
+            index++;
+        }
+        if (index == colors.size()) {
+            throw new IllegalArgumentException("Background is not in the palette: " + properties.getProperty("background"));
+        }
+
+        int colorBase = Integer.parseInt(properties.getProperty("color_base", "0"));
+        return new CanvasLayout(colors, phases, colorBase, index);
+    }
+
+    static Properties loadProperties(Year year) {
+        try (InputStream in = CanvasLayout.class.getResourceAsStream("/" + year + ".properties")) {
+            if (in == null) {
+                throw new IllegalArgumentException("No properties for " + year);
+            }
+            Properties properties = new Properties();
+            properties.load(in);
+            return properties;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of states, one per phase
+     */
+    int states() {
+        return phases.size();
+    }
+
+    /**
+     * Returns the phase of a state, starting at 1
+     */
+    Phase phase(int state) {
+        return phases.get(state - 1);
+    }
+
+    IndexColorModel colorModel(int state) {
+        return colorModels[state - 1];
+    }
+
+    /**
+     * Returns the bounds of the final canvas
+     */
+    Phase bounds() {
+        return phases.get(phases.size() - 1);
+    }
+
+    int colorBase() {
+        return colorBase;
+    }
+
+    /**
+     * Returns the palette index that pixels start out with
+     */
+    byte background() {
+        return background;
+    }
+
+    record Phase(int minX, int minY, int maxX, int maxY, int colors, long start) {
+        Phase {
+            if (minX > maxX || minY > maxY || colors < 1) {
+                throw new IllegalArgumentException("Phase can't be empty");
+            }
+        }
+
+        int width() {
+            return maxX - minX + 1;
+        }
+
+        int height() {
+            return maxY - minY + 1;
+        }
+
+        boolean contains(int x, int y) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+    }
+
+}
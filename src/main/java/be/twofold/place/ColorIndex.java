@@ -0,0 +1,52 @@
+package be.twofold.place;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Finds the id of a {@code #RRGGBB} color, without allocating. Ids start at 1, in palette order.
+ */
+final class ColorIndex {
+
+    private static final int Size = 256;
+
+    private final int[] keys = new int[Size];
+    private final byte[] values = new byte[Size];
+
+    ColorIndex(List<Color> colors) {
+        if (colors.size() > Size / 2) {
+            throw new IllegalArgumentException("Too many colors: " + colors.size());
+        }
+        Arrays.fill(keys, -1);
+        for (int i = 0; i < colors.size(); i++) {
+            int slot = find(colors.get(i).getRGB() & 0xFFFFFF);
+            keys[slot] = colors.get(i).getRGB() & 0xFFFFFF;
+            values[slot] = (byte) (i + 1);
+        }
+    }
+
+    /**
+     * Returns the index of the color in [from, to), including the leading {@code #}
+     */
+    int get(byte[] buffer, int from, int to) {
+        if (to - from != 7 || buffer[from] != '#') {
+            throw new IllegalArgumentException("Invalid color: " + new String(buffer, from, to - from));
+        }
+        int rgb = Bytes.parseHex(buffer, from + 1, to);
+        int slot = find(rgb);
+        if (keys[slot] < 0) {
+            throw new IllegalArgumentException("Unknown color: " + new String(buffer, from, to - from));
+        }
+        return values[slot];
+    }
+
+    private int find(int rgb) {
+        int slot = (rgb * 0x9E3779B1) >>> 24;
+        while (keys[slot] >= 0 && keys[slot] != rgb) {
+            slot = (slot + 1) & (Size - 1);
+        }
+        return slot;
+    }
+
+}
@@ -0,0 +1,152 @@
+package be.twofold.place;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+/**
+ * Assigns ids to users as they are encountered, from many threads at once.
+ * <p>
+ * Users are spread over independently locked {@link UserDictionary} segments, by a character of their hash. Ids
+ * are handed out in the order users are first seen, which is not deterministic when interning in parallel, so
+ * {@link #sortedIds()} gives the order of the keys to renumber them afterwards.
+ */
+final class ConcurrentUserDictionary {
+
+    private static final int Segments = 64;
+
+    private final UserDictionary[] segments = new UserDictionary[Segments];
+    private final int[][] globalIds = new int[Segments][];
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    // Segment and local id of every global id, filled in by freeze
+    private int[] segmentOf;
+    private int[] localOf;
+
+    ConcurrentUserDictionary(int keyBytes) {
+        for (int i = 0; i < Segments; i++) {
+            segments[i] = new UserDictionary(keyBytes, 1024);
+            globalIds[i] = new int[1024];
+        }
+    }
+
+    /**
+     * Returns the id of a base64 encoded user, assigning a new one if the user is not known yet
+     */
+    int intern(byte[] buffer, int start, int end) {
+        // The users are hashes, so their second base64 character is spread evenly over the segments
+        int index = UserDictionary.value(buffer[start + 1]) & (Segments - 1);
+        UserDictionary segment = segments[index];
+        synchronized (segment) {
+            int size = segment.size();
+            int local = segment.add(buffer, start, end);
+            if (segment.size() == size) {
+                return globalIds[index][local - 1];
+            }
+
+            if (local > globalIds[index].length) {
+                globalIds[index] = Arrays.copyOf(globalIds[index], globalIds[index].length * 2);
+            }
+            int id = nextId.incrementAndGet();
+            globalIds[index][local - 1] = id;
+            return id;
+        }
+    }
+
+    int size() {
+        return nextId.get();
+    }
+
+    /**
+     * Returns the decoded user hash of an id. Only valid once frozen.
+     */
+    byte[] key(int id) {
+        if (segmentOf == null) {
+            throw new IllegalStateException("Not frozen yet");
+        }
+        return segments[segmentOf[id]].key(localOf[id]);
+    }
+
+    /**
+     * Returns all ids, ordered by their user hash, and freezes the dictionary. Only valid once interning is done.
+     * <p>
+     * The ids of every segment are sorted on their own, and the segments merged, so no id is boxed.
+     */
+    int[] sortedIds() {
+        freeze();
+        int[][] sorted = new int[Segments][];
+        IntStream.range(0, Segments).parallel().forEach(s -> {
+            UserDictionary segment = segments[s];
+            int[] locals = IntStream.rangeClosed(1, segment.size()).toArray();
+            IntSorter.sort(locals, (local1, local2) -> UserDictionary.compare(segment, local1, segment, local2));
+            sorted[s] = locals;
+        });
+
+        // A heap of the segments that have ids left, by their next id
+        int[] heap = new int[Segments];
+        int[] next = new int[Segments];
+        int heapSize = 0;
+        for (int s = 0; s < Segments; s++) {
+            if (sorted[s].length > 0) {
+                heap[heapSize++] = s;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, i, sorted, next);
+        }
+
+        int[] ids = new int[size()];
+        for (int i = 0; i < ids.length; i++) {
+            int s = heap[0];
+            ids[i] = globalIds[s][sorted[s][next[s]] - 1];
+            if (++next[s] == sorted[s].length) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, 0, sorted, next);
+        }
+        return ids;
+    }
+
+    private void siftDown(int[] heap, int heapSize, int i, int[][] sorted, int[] next) {
+        while (true) {
+            int smallest = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < heapSize; child++) {
+                if (compareHeads(heap[child], heap[smallest], sorted, next) < 0) {
+                    smallest = child;
+                }
+            }
+            if (smallest == i) {
+                return;
+            }
+            int swap = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = swap;
+            i = smallest;
+        }
+    }
+
+    private int compareHeads(int s1, int s2, int[][] sorted, int[] next) {
+        return UserDictionary.compare(segments[s1], sorted[s1][next[s1]], segments[s2], sorted[s2][next[s2]]);
+    }
+
+    /**
+     * Maps every id back to its segment and local id, for looking up keys. Only valid once interning is done.
+     */
+    synchronized void freeze() {
+        if (segmentOf != null) {
+            return;
+        }
+        segmentOf = new int[size() + 1];
+        localOf = new int[size() + 1];
+        for (int s = 0; s < Segments; s++) {
+            synchronized (segments[s]) {
+                for (int local = 1; local <= segments[s].size(); local++) {
+                    int id = globalIds[s][local - 1];
+                    segmentOf[id] = s;
+                    localOf[id] = local;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package be.twofold.place;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.zip.*;
+
+/**
+ * Reconstructs frames written by {@link DeltaFrameWriter}.
+ * <p>
+ * A frame is rebuilt from the closest keyframe before it, applying the deltas in between. Reading frames in order
+ * only applies a single delta per frame. The returned frame is reused by the next read.
+ */
+final class DeltaFrameReader implements Closeable {
+
+    private final FileChannel data;
+    private final long[] cutoffs;
+    private final long[] positions;
+    private final int[] lengths;
+    private final boolean[] keyframes;
+    private final Inflater inflater = new Inflater();
+
+    private int current = -1;
+    private int state;
+    private int width;
+    private int height;
+    private byte[] pixels = new byte[0];
+    private IndexColorModel colorModel;
+    private byte[] tilePixels = new byte[0];
+
+    DeltaFrameReader(Path directory) throws IOException {
+        ByteBuffer index = ByteBuffer
+            .wrap(Files.readAllBytes(directory.resolve(DeltaFrameWriter.IndexFile)))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        checkHeader(index);
+
+        int count = (index.remaining() - DeltaFrameWriter.FileHeaderSize) / DeltaFrameWriter.IndexEntrySize;
+        cutoffs = new long[count];
+        positions = new long[count];
+        lengths = new int[count];
+        keyframes = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int offset = DeltaFrameWriter.FileHeaderSize + i * DeltaFrameWriter.IndexEntrySize;
+            cutoffs[i] = index.getLong(offset);
+            positions[i] = index.getLong(offset + 8);
+            lengths[i] = index.getInt(offset + 16);
+            keyframes[i] = index.get(offset + 20) == DeltaFrameWriter.KeyFrame;
+        }
+        if (count > 0 && !keyframes[0]) {
+            throw new IOException("The first frame is not a keyframe");
+        }
+
+        data = FileChannel.open(directory.resolve(DeltaFrameWriter.DataFile), StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(DeltaFrameWriter.FileHeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(0, header);
+        checkHeader(header.flip());
+    }
+
+    int size() {
+        return cutoffs.length;
+    }
+
+    long cutoff(int frame) {
+        return cutoffs[frame];
+    }
+
+    /**
+     * Returns the index of the last frame with a cutoff at or before the timestamp, or {@code -1} if there is none
+     */
+    int find(long timestamp) {
+        int low = 0;
+        int high = cutoffs.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (cutoffs[mid] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    Frame read(int frame) throws IOException {
+        if (frame < 0 || frame >= size()) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " out of " + size());
+        }
+
+        int keyframe = frame;
+        while (!keyframes[keyframe]) {
+            keyframe--;
+        }
+        int from = current >= keyframe && current <= frame ? current + 1 : keyframe;
+        for (int i = from; i <= frame; i++) {
+            apply(i);
+        }
+        current = frame;
+        return new Frame(cutoffs[frame], state, width, height, pixels, colorModel, null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        data.close();
+    }
+
+    private void apply(int frame) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(lengths[frame]).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(positions[frame], record);
+        record.flip();
+
+        byte type = record.get();
+        int recordState = Byte.toUnsignedInt(record.get());
+        int recordWidth = Short.toUnsignedInt(record.getShort());
+        int recordHeight = Short.toUnsignedInt(record.getShort());
+        int paletteSize = Short.toUnsignedInt(record.getShort());
+        record.getLong(); // Cutoff, also in the index
+        int tileCount = record.getInt();
+        int compressedLength = record.getInt();
+
+        if (type == DeltaFrameWriter.KeyFrame) {
+            state = recordState;
+            width = recordWidth;
+            height = recordHeight;
+            if (pixels.length != width * height) {
+                pixels = new byte[width * height];
+            }
+
+            byte[] palette = new byte[paletteSize * 3];
+            record.get(palette);
+            colorModel = new IndexColorModel(8, paletteSize, palette, 0, false);
+            inflate(record, compressedLength, pixels, pixels.length);
+            return;
+        }
+
+        if (recordWidth != width || recordHeight != height) {
+            throw new IOException("Delta of " + recordWidth + "x" + recordHeight + " on a " + width + "x" + height + " frame");
+        }
+        Frame shape = new Frame(0, state, width, height, null, null, null);
+        int[] tiles = new int[tileCount];
+        int bytes = 0;
+        for (int i = 0; i < tileCount; i++) {
+            tiles[i] = record.getInt();
+            bytes += DeltaFrameWriter.tileWidth(shape, tiles[i]) * DeltaFrameWriter.tileHeight(shape, tiles[i]);
+        }
+        if (tilePixels.length < bytes) {
+            tilePixels = new byte[bytes];
+        }
+        inflate(record, compressedLength, tilePixels, bytes);
+
+        int offset = 0;
+        for (int tile : tiles) {
+            int x = tile % shape.tilesX() * Frame.TileSize;
+            int y = tile / shape.tilesX() * Frame.TileSize;
+            int tileWidth = DeltaFrameWriter.tileWidth(shape, tile);
+            int tileHeight = DeltaFrameWriter.tileHeight(shape, tile);
+            for (int row = 0; row < tileHeight; row++) {
+                System.arraycopy(tilePixels, offset, pixels, (y + row) * width + x, tileWidth);
+                offset += tileWidth;
+            }
+        }
+    }
+
+    private void inflate(ByteBuffer record, int compressedLength, byte[] target, int length) throws IOException {
+        inflater.reset();
+        inflater.setInput(record.array(), record.position(), compressedLength);
+        try {
+            int total = 0;
+            while (total < length && !inflater.finished()) {
+                int n = inflater.inflate(target, total, length - total);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                total += n;
+            }
+            if (total != length) {
+                throw new IOException("Expected " + length + " bytes of pixels, but got " + total);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt frame", e);
+        }
+    }
+
+    private void readFully(long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (data.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + DeltaFrameWriter.DataFile);
+            }
+        }
+    }
+
+    private static void checkHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < DeltaFrameWriter.FileHeaderSize
+            || buffer.getInt(0) != DeltaFrameWriter.Magic
+            || buffer.getInt(4) != DeltaFrameWriter.Version) {
+            throw new IOException("Not a delta frame file of version " + DeltaFrameWriter.Version);
+        }
+        if (buffer.getInt(8) != Frame.TileSize) {
+            throw new IOException("Unsupported tile size: " + buffer.getInt(8));
+        }
+    }
+
+}
@@ -0,0 +1,245 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Writes frames as a keyframe every so many frames, and only the tiles that changed in between.
+ * <p>
+ * All frames go back to back in {@code frames.delta}, and {@code frames.index} holds the cutoff and position of
+ * every frame, so a single frame can be found without reading the others. Both files are little endian.
+ * <p>
+ * A record starts with a fixed header: type, state, width, height, palette size, cutoff, tile count and compressed
+ * length. A keyframe follows it with its palette and all its pixels. A delta frame follows it with the index of every
+ * changed tile, row by row, and the pixels of those tiles, each clipped to the canvas. The pixels are deflated.
+ * A new state of the canvas, with its own size and palette, always starts with a keyframe.
+ */
+final class DeltaFrameWriter implements FrameWriter {
+
+    static final String DataFile = "frames.delta";
+    static final String IndexFile = "frames.index";
+    static final int Magic = 0x46444C50; // "PLDF"
+    static final int Version = 1;
+    static final int FileHeaderSize = 12;
+    static final int RecordHeaderSize = 24;
+    static final int IndexEntrySize = 24;
+    static final byte KeyFrame = 0;
+    static final byte DeltaFrame = 1;
+
+    private static final int FramesInFlight = 4;
+
+    private final FileChannel data;
+    private final FileChannel index;
+    private final int keyframeInterval;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Semaphore inFlight = new Semaphore(FramesInFlight);
+    private volatile Throwable failure;
+
+    // Owned by the rendering thread
+    private int framesSinceKey;
+    private int lastState = -1;
+
+    // Owned by the executor
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] compressed = new byte[1 << 16];
+    private long position = FileHeaderSize;
+
+    DeltaFrameWriter(Path directory, Options options) throws IOException {
+        this.keyframeInterval = options.getInt("keyframe-interval", 12);
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be positive");
+        }
+
+        this.data = FileChannel.open(directory.resolve(DataFile),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.index = FileChannel.open(directory.resolve(IndexFile),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        writeFully(data, fileHeader());
+        writeFully(index, fileHeader());
+    }
+
+    @Override
+    public void write(Frame frame) throws IOException {
+        checkFailure();
+
+        boolean key = framesSinceKey % keyframeInterval == 0
+            || frame.dirtyTiles() == null
+            || frame.state() != lastState;
+        framesSinceKey = key ? 1 : framesSinceKey + 1;
+        lastState = frame.state();
+
+        // Copy out what is needed, the rest happens in the background
+        Snapshot snapshot = key ? keyframe(frame) : delta(frame);
+        System.out.println("Dumping " + (key ? "keyframe" : "delta of " + snapshot.tiles.length + " tiles") + ": " + frame.name());
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        executor.execute(() -> {
+            try {
+                if (failure == null) {
+                    Metrics.Span span = Metrics.start("delta");
+                    long position = data.position();
+                    append(snapshot);
+                    span.end(1, data.position() - position);
+                }
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            deflater.end();
+            data.close();
+            index.close();
+        }
+        checkFailure();
+    }
+
+    private static Snapshot keyframe(Frame frame) {
+        int size = frame.colorModel().getMapSize();
+        byte[] palette = new byte[size * 3];
+        for (int i = 0; i < size; i++) {
+            palette[i * 3] = (byte) frame.colorModel().getRed(i);
+            palette[i * 3 + 1] = (byte) frame.colorModel().getGreen(i);
+            palette[i * 3 + 2] = (byte) frame.colorModel().getBlue(i);
+        }
+        byte[] pixels = Arrays.copyOf(frame.pixels(), frame.width() * frame.height());
+        return new Snapshot(KeyFrame, frame, palette, new int[0], pixels);
+    }
+
+    private static Snapshot delta(Frame frame) {
+        boolean[] dirty = frame.dirtyTiles();
+        int count = 0;
+        int bytes = 0;
+        for (int tile = 0; tile < dirty.length; tile++) {
+            if (dirty[tile]) {
+                count++;
+                bytes += tileWidth(frame, tile) * tileHeight(frame, tile);
+            }
+        }
+
+        int[] tiles = new int[count];
+        byte[] pixels = new byte[bytes];
+        int offset = 0;
+        for (int tile = 0, i = 0; tile < dirty.length; tile++) {
+            if (!dirty[tile]) {
+                continue;
+            }
+            tiles[i++] = tile;
+            int x = tile % frame.tilesX() * Frame.TileSize;
+            int y = tile / frame.tilesX() * Frame.TileSize;
+            int width = tileWidth(frame, tile);
+            for (int row = 0; row < tileHeight(frame, tile); row++) {
+                System.arraycopy(frame.pixels(), (y + row) * frame.width() + x, pixels, offset, width);
+                offset += width;
+            }
+        }
+        return new Snapshot(DeltaFrame, frame, new byte[0], tiles, pixels);
+    }
+
+    static int tileWidth(Frame frame, int tile) {
+        return Math.min(Frame.TileSize, frame.width() - tile % frame.tilesX() * Frame.TileSize);
+    }
+
+    static int tileHeight(Frame frame, int tile) {
+        return Math.min(Frame.TileSize, frame.height() - tile / frame.tilesX() * Frame.TileSize);
+    }
+
+    private void append(Snapshot snapshot) throws IOException {
+        deflater.reset();
+        deflater.setInput(snapshot.pixels);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        Frame frame = snapshot.frame;
+        int recordSize = RecordHeaderSize + snapshot.palette.length + snapshot.tiles.length * 4 + length;
+        ByteBuffer record = ByteBuffer.allocate(recordSize).order(ByteOrder.LITTLE_ENDIAN);
+        record.put(snapshot.type);
+        record.put((byte) frame.state());
+        record.putShort((short) frame.width());
+        record.putShort((short) frame.height());
+        record.putShort((short) (snapshot.palette.length / 3));
+        record.putLong(frame.cutoff());
+        record.putInt(snapshot.tiles.length);
+        record.putInt(length);
+        record.put(snapshot.palette);
+        for (int tile : snapshot.tiles) {
+            record.putInt(tile);
+        }
+        record.put(compressed, 0, length);
+        writeFully(data, record.flip());
+
+        ByteBuffer entry = ByteBuffer.allocate(IndexEntrySize).order(ByteOrder.LITTLE_ENDIAN);
+        entry.putLong(frame.cutoff());
+        entry.putLong(position);
+        entry.putInt(recordSize);
+        entry.put(snapshot.type);
+        writeFully(index, entry.position(IndexEntrySize).flip());
+        position += recordSize;
+    }
+
+    private static ByteBuffer fileHeader() {
+        return ByteBuffer.allocate(FileHeaderSize)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(Magic)
+            .putInt(Version)
+            .putInt(Frame.TileSize)
+            .flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Could not write frames", failure);
+        }
+    }
+
+    private static final class Snapshot {
+        private final byte type;
+        private final Frame frame;
+        private final byte[] palette;
+        private final int[] tiles;
+        private final byte[] pixels;
+
+        private Snapshot(byte type, Frame frame, byte[] palette, int[] tiles, byte[] pixels) {
+            this.type = type;
+            // The arrays of the frame itself are reused, so only keep what describes it
+            this.frame = new Frame(frame.cutoff(), frame.state(), frame.width(), frame.height(), null, null, null);
+            this.palette = palette;
+            this.tiles = tiles;
+            this.pixels = pixels;
+        }
+    }
+
+}
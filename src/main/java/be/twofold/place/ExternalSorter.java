@@ -0,0 +1,117 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sorts more placements than fit in memory. Placements are collected in chunks of columns, which are radix sorted
+ * in parallel and spilled to {@link SortedRun}s, and the runs are merged in a single pass at the end.
+ * <p>
+ * Memory is bounded by the number of chunks that are filling or being sorted at the same time.
+ */
+final class ExternalSorter implements Closeable {
+
+    // The columns, the order and its buffer, and a digit for the radix sort
+    private static final long BytesPerPlacement = 17 + 4 + 4 + 1;
+
+    private final Path tempDirectory;
+    private final int chunkSize;
+    private final ExecutorService pool;
+    private final Semaphore inFlight;
+    private final List<Future<Path>> runs = new ArrayList<>();
+    private PlacementColumns chunk;
+
+    ExternalSorter(Path directory, long memoryBytes) throws IOException {
+        this.tempDirectory = Files.createTempDirectory(directory, "sort");
+
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.chunkSize = (int) Math.min(Integer.MAX_VALUE - 8 - PlacementBatch.Size, memoryBytes / (BytesPerPlacement * (threads + 1)));
+        if (chunkSize < 1024) {
+            throw new IllegalArgumentException("Not enough memory to sort: " + memoryBytes);
+        }
+        this.pool = Executors.newFixedThreadPool(threads);
+        this.inFlight = new Semaphore(threads);
+        this.chunk = newChunk();
+    }
+
+    synchronized void addAll(PlacementBatch batch) {
+        chunk.addAll(batch);
+        if (chunk.size() >= chunkSize) {
+            spill();
+        }
+    }
+
+    /**
+     * Merges all runs, and writes them in order to the writer
+     */
+    synchronized void writeTo(PlacementWriter writer) throws IOException {
+        if (chunk.size() > 0) {
+            spill();
+        }
+
+        List<Path> paths = new ArrayList<>();
+        for (Future<Path> run : runs) {
+            paths.add(await(run));
+        }
+        SortedRun.merge(paths, null, writer);
+    }
+
+    private void spill() {
+        PlacementColumns toSort = chunk;
+        inFlight.acquireUninterruptibly();
+        chunk = newChunk();
+
+        runs.add(pool.submit(() -> {
+            try {
+                // The chunks are sorted in parallel already
+                int[] order = new RadixSorter(1).sort(toSort);
+                Path path = Files.createTempFile(tempDirectory, "run", ".tmp");
+                Metrics.Span span = Metrics.start("spill");
+                SortedRun.write(path, toSort, order);
+                span.end(toSort.size(), Files.size(path));
+                return path;
+            } finally {
+                inFlight.release();
+            }
+        }));
+    }
+
+    private PlacementColumns newChunk() {
+        // A batch can go over the chunk size before it's spilled
+        return new PlacementColumns(chunkSize + PlacementBatch.Size);
+    }
+
+    private static Path await(Future<Path> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(tempDirectory)) {
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(tempDirectory);
+    }
+
+}
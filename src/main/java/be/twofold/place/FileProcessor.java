@@ -4,48 +4,270 @@ import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
-import java.util.stream.*;
 import java.util.zip.*;
 
+/**
+ * Reads all lines of the source files, except for the header, as a pipeline of two stages.
+ * <p>
+ * Decompressors read whole files into large chunks, cut at the last newline. Parsers split the chunks into lines,
+ * and hand them to their own {@link LineHandler}. Chunks come from a fixed pool, so a slow stage blocks the one
+ * before it, and memory stays bounded. Because chunks of the same file are parsed in parallel, lines arrive in no
+ * particular order.
+ */
 public final class FileProcessor {
 
+    private static final int ReadBufferSize = 1 << 16;
+
     private final List<Path> sourceFiles;
+    private final int decompressors;
+    private final int parsers;
+    private final int chunkSize;
 
     public FileProcessor(List<Path> sourceFiles) {
+        this(sourceFiles, Options.empty());
+    }
+
+    FileProcessor(List<Path> sourceFiles, Options options) {
+        this(sourceFiles,
+            options.getInt("decompress-threads", Math.max(1, Math.min(sourceFiles.size(), Runtime.getRuntime().availableProcessors() / 2))),
+            options.getInt("parse-threads", Runtime.getRuntime().availableProcessors()),
+            options.getInt("chunk-size", 4) * 1024 * 1024);
+    }
+
+    private FileProcessor(List<Path> sourceFiles, int decompressors, int parsers, int chunkSize) {
         this.sourceFiles = List.copyOf(sourceFiles);
+        this.decompressors = decompressors;
+        this.parsers = parsers;
+        this.chunkSize = chunkSize;
+        if (decompressors < 1 || parsers < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Thread counts and chunk size must be positive");
+        }
+    }
+
+    /**
+     * Returns a processor for a single file, for when every file is processed on its own. It gets a single
+     * decompressor, and its share of the parsers, so there can be as many of them as there are decompressors.
+     */
+    FileProcessor forFile(Path sourceFile) {
+        return new FileProcessor(List.of(sourceFile), 1, Math.max(1, parsers / decompressors), chunkSize);
+    }
+
+    int decompressors() {
+        return decompressors;
     }
 
-    public void process(Consumer<Stream<String>> consumer) {
-        int processors = Runtime.getRuntime().availableProcessors() / 4;
-        ForkJoinPool forkJoinPool = new ForkJoinPool(processors);
+    int parsers() {
+        return parsers;
+    }
+
+    /**
+     * Called from a single parser thread, for every line of the chunks it takes
+     */
+    public interface LineHandler {
+        void line(byte[] buffer, int start, int end);
+
+        /**
+         * Called after every chunk, and before the pipeline finishes
+         */
+        default void flush() {
+        }
+    }
+
+    public void process(Supplier<? extends LineHandler> handlers) {
+        BlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(2 * (decompressors + parsers));
+        while (pool.remainingCapacity() > 0) {
+            pool.add(new byte[chunkSize]);
+        }
+        BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(pool.size() + parsers);
+        Queue<Path> files = new ConcurrentLinkedQueue<>(sourceFiles);
+        // Full chunks waiting for a parser, and free ones waiting for a decompressor
+        LongSupplier parseQueue = chunks::size;
+        LongSupplier decompressQueue = pool::size;
+        Metrics.gauge("parse.queue", parseQueue);
+        Metrics.gauge("decompress.queue", decompressQueue);
+
+        ExecutorService executor = Executors.newFixedThreadPool(decompressors + parsers);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
         try {
-            forkJoinPool.submit(() -> consumer
-                .accept(sourceFiles.stream()
-                    .parallel()
-                    .flatMap(FileProcessor::readFile)
-                )
-            ).get();
-        } catch (ExecutionException | InterruptedException e) {
-            throw new RuntimeException(e);
+            List<Future<?>> decompressing = new ArrayList<>();
+            for (int i = 0; i < decompressors; i++) {
+                decompressing.add(submit(executor, failure, () -> decompress(files, pool, chunks)));
+            }
+            List<Future<?>> parsing = new ArrayList<>();
+            for (int i = 0; i < parsers; i++) {
+                parsing.add(submit(executor, failure, () -> parse(handlers.get(), pool, chunks)));
+            }
+
+            for (Future<?> future : decompressing) {
+                future.get();
+            }
+            for (int i = 0; i < parsers; i++) {
+                chunks.put(Chunk.End);
+            }
+            for (Future<?> future : parsing) {
+                future.get();
+            }
+        } catch (ExecutionException | CancellationException | InterruptedException e) {
+            Throwable cause = failure.get() != null ? failure.get() : e;
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            throw new RuntimeException(cause);
         } finally {
-            forkJoinPool.shutdown();
+            executor.shutdownNow();
+            Metrics.removeGauge("parse.queue", parseQueue);
+            Metrics.removeGauge("decompress.queue", decompressQueue);
         }
     }
 
-    private static Stream<String> readFile(Path path) {
+    /**
+     * Runs a stage, and stops all the other ones when it fails
+     */
+    private static Future<?> submit(ExecutorService executor, AtomicReference<Throwable> failure, Callable<?> stage) {
+        return executor.submit(() -> {
+            try {
+                return stage.call();
+            } catch (Throwable t) {
+                if (failure.compareAndSet(null, t)) {
+                    executor.shutdownNow();
+                }
+                throw t;
+            }
+        });
+    }
+
+    private Void decompress(Queue<Path> files, BlockingQueue<byte[]> pool, BlockingQueue<Chunk> chunks) throws Exception {
+        Path path;
+        while ((path = files.poll()) != null) {
+            System.out.println("Reading file: " + path);
+            Metrics.counter("decompress.files").increment();
+            Metrics.counter("decompress.compressedBytes").add(Files.size(path));
+            try (InputStream in = open(path)) {
+                byte[] buffer = pool.take();
+                int length = 0;
+                boolean first = true;
+                while (true) {
+                    Metrics.Span span = Metrics.start("decompress");
+                    int read = in.readNBytes(buffer, length, buffer.length - length);
+                    span.end(1, read);
+                    length += read;
+                    if (length < buffer.length) {
+                        chunks.put(new Chunk(buffer, length, first));
+                        break;
+                    }
+
+                    int end = Bytes.lastIndexOf(buffer, 0, length, (byte) '\n') + 1;
+                    if (end == 0) {
+                        throw new IOException("Line longer than chunk size in " + path);
+                    }
+                    byte[] next = pool.take();
+                    System.arraycopy(buffer, end, next, 0, length - end);
+                    chunks.put(new Chunk(buffer, end, first));
+
+                    buffer = next;
+                    length = length - end;
+                    first = false;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Void parse(LineHandler handler, BlockingQueue<byte[]> pool, BlockingQueue<Chunk> chunks) throws Exception {
+        while (true) {
+            Chunk chunk = chunks.take();
+            if (chunk == Chunk.End) {
+                handler.flush();
+                return null;
+            }
+
+            byte[] buffer = chunk.buffer();
+            Metrics.Span span = Metrics.start("parse");
+            int lines = splitLines(buffer, chunk.length(), chunk.first(), handler);
+            handler.flush();
+            span.end(lines, chunk.length());
+            pool.put(buffer);
+        }
+    }
+
+    private static InputStream open(Path path) throws IOException {
+        InputStream in = Files.newInputStream(path);
+        return path.getFileName().toString().endsWith(".gzip")
+            ? new GZIPInputStream(in, ReadBufferSize)
+            : new BufferedInputStream(in, ReadBufferSize);
+    }
+
+    /**
+     * Hands the lines to the handler, and returns how many it got
+     */
+    private static int splitLines(byte[] buffer, int length, boolean skipFirst, LineHandler handler) {
+        int start = 0;
+        int lines = 0;
+        boolean skip = skipFirst;
+        while (start < length) {
+            int end = Bytes.indexOf(buffer, start, length, (byte) '\n');
+            int next = end + 1;
+            if (end > start && buffer[end - 1] == '\r') {
+                end--;
+            }
+            if (skip) {
+                skip = false;
+            } else {
+                handler.line(buffer, start, end);
+                lines++;
+            }
+            start = next;
+        }
+        return lines;
+    }
+
+    /**
+     * Reads a single file in order on the calling thread, for when the order of the lines matters
+     */
+    static void readFile(Path path, LineHandler handler) throws IOException {
         System.out.println("Reading file: " + path);
-        try {
-            InputStream in = path.getFileName().toString().endsWith(".gzip")
-                ? new GZIPInputStream(Files.newInputStream(path))
-                : Files.newInputStream(path);
+        Metrics.counter("decompress.files").increment();
+        Metrics.counter("decompress.compressedBytes").add(Files.size(path));
+        try (InputStream in = open(path)) {
+            byte[] buffer = new byte[ReadBufferSize * 16];
+            int length = 0;
+            boolean first = true;
+            while (true) {
+                Metrics.Span decompress = Metrics.start("decompress");
+                int read = in.readNBytes(buffer, length, buffer.length - length);
+                decompress.end(1, read);
+                length += read;
+                if (length < buffer.length) {
+                    Metrics.Span parse = Metrics.start("parse");
+                    int lines = splitLines(buffer, length, first, handler);
+                    handler.flush();
+                    parse.end(lines, length);
+                    return;
+                }
+
+                int end = Bytes.lastIndexOf(buffer, 0, length, (byte) '\n') + 1;
+                if (end == 0) {
+                    throw new IOException("Line longer than " + buffer.length + " bytes in " + path);
+                }
+                Metrics.Span parse = Metrics.start("parse");
+                int lines = splitLines(buffer, end, first, handler);
+                handler.flush();
+                parse.end(lines, end);
 
-            return new BufferedReader(new InputStreamReader(in))
-                .lines()
-                .skip(1);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+                System.arraycopy(buffer, end, buffer, 0, length - end);
+                length -= end;
+                first = false;
+            }
         }
     }
 
+    private record Chunk(byte[] buffer, int length, boolean first) {
+        static final Chunk End = new Chunk(new byte[0], 0, false);
+    }
+
 }
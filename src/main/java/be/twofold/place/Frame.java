@@ -0,0 +1,40 @@
+package be.twofold.place;
+
+import java.awt.image.*;
+import java.time.*;
+
+/**
+ * The canvas at the cutoff of a frame.
+ * <p>
+ * The pixels hold a palette index per pixel, row by row. The dirty tiles flag the {@link #TileSize} squares that
+ * changed since the previous frame, or are {@code null} when that is not known. Both arrays are only lent out for
+ * the duration of a call, and change afterwards.
+ */
+record Frame(long cutoff, int state, int width, int height, byte[] pixels, IndexColorModel colorModel, boolean[] dirtyTiles) {
+
+    static final int TileSize = 64;
+
+    static int tiles(int size) {
+        return (size + TileSize - 1) / TileSize;
+    }
+
+    int tilesX() {
+        return tiles(width);
+    }
+
+    int tilesY() {
+        return tiles(height);
+    }
+
+    String formattedDate() {
+        return Instant.ofEpochMilli(cutoff).toString().replaceAll("[:-]", "");
+    }
+
+    /**
+     * The name of the frame, without extension
+     */
+    String name() {
+        return "place_" + state + "_" + formattedDate();
+    }
+
+}
@@ -0,0 +1,27 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+
+/**
+ * The outputs of rendering
+ */
+enum FrameFormat {
+    PNG,
+    DELTA,
+    Y4M,
+    RGB;
+
+    static FrameFormat parse(String s) {
+        return valueOf(s.toUpperCase());
+    }
+
+    FrameWriter newWriter(Path directory, Year year, Options options) throws IOException {
+        return switch (this) {
+            case PNG -> new PngFrameWriter(directory, options);
+            case DELTA -> new DeltaFrameWriter(directory, options);
+            case Y4M, RGB -> new VideoFrameWriter(this, directory, year, options);
+        };
+    }
+}
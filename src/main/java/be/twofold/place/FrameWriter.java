@@ -0,0 +1,15 @@
+package be.twofold.place;
+
+import java.io.*;
+
+/**
+ * Writes rendered frames, in order
+ */
+interface FrameWriter extends Closeable {
+
+    /**
+     * Writes a frame. Anything that is needed after returning has to be copied out of it.
+     */
+    void write(Frame frame) throws IOException;
+
+}
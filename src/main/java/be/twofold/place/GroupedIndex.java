@@ -0,0 +1,157 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * The placements grouped by a key, by pixel or by user, so the history of a single pixel or user can be looked up
+ * without reading the rest. The file is mapped, and a lookup touches only the offsets of the group and its own
+ * entries.
+ * <p>
+ * The file starts with a header: magic, version, key, group count, the placement coordinates of the first pixel,
+ * the width and height of the canvas, the entry count, the base timestamp and the position of the entries. The
+ * offsets follow, one {@code int} per group plus one for the end, each the first entry of its group. Pixels are
+ * grouped row by row, and users by their id in users.txt. The entries hold the timestamp delta ({@code int}), the
+ * field that isn't the key ({@code int}: the user, or x and y as {@code short}s) and the color id ({@code byte})
+ * of every placement, in record order within a group. All numbers are little endian.
+ */
+final class GroupedIndex implements Closeable {
+
+    static final int Magic = 0x49474C50; // "PLGI"
+    static final int Version = 1;
+    static final int HeaderSize = 64;
+    static final int EntrySize = 4 + 4 + 1;
+    // Entries are mapped in segments, as a single mapping can't hold more than 2GB
+    static final int SegmentShift = 26;
+
+    enum Key {
+        PIXEL("pixels.bin"),
+        USER("users.bin");
+
+        private final String fileName;
+
+        Key(String fileName) {
+            this.fileName = fileName;
+        }
+
+        String fileName() {
+            return fileName;
+        }
+    }
+
+    private final FileChannel channel;
+    private final Key key;
+    private final int groups;
+    private final int originX;
+    private final int originY;
+    private final int width;
+    private final int height;
+    private final long baseTimestamp;
+    private final IntBuffer offsets;
+    private final ByteBuffer[] segments;
+
+    /**
+     * Opens the index of a key in a directory
+     */
+    GroupedIndex(Path directory, Key key) throws IOException {
+        Path path = directory.resolve(key.fileName());
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() < HeaderSize) {
+                throw new IOException("Not an index of version " + Version + ": " + path);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != Magic || header.getInt() != Version) {
+                throw new IOException("Not an index of version " + Version + ": " + path);
+            }
+            if (header.getInt() != key.ordinal()) {
+                throw new IOException("Not an index by " + key.name().toLowerCase() + ": " + path);
+            }
+            this.key = key;
+            groups = header.getInt();
+            originX = header.getInt();
+            originY = header.getInt();
+            width = header.getInt();
+            height = header.getInt();
+            long count = header.getLong();
+            baseTimestamp = header.getLong();
+            long entriesPosition = header.getLong();
+
+            offsets = channel
+                .map(FileChannel.MapMode.READ_ONLY, HeaderSize, (groups + 1L) * 4)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer();
+            segments = mapSegments(channel, FileChannel.MapMode.READ_ONLY, entriesPosition, count);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the entries, a segment of {@code 1 << SegmentShift} entries at a time
+     */
+    static ByteBuffer[] mapSegments(FileChannel channel, FileChannel.MapMode mode, long position, long count) throws IOException {
+        long segmentEntries = 1L << SegmentShift;
+        ByteBuffer[] segments = new ByteBuffer[(int) ((count + segmentEntries - 1) / segmentEntries)];
+        for (int i = 0; i < segments.length; i++) {
+            long entries = Math.min(segmentEntries, count - i * segmentEntries);
+            segments[i] = channel
+                .map(mode, position + i * segmentEntries * EntrySize, entries * EntrySize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the group of a pixel, in placement coordinates
+     */
+    int pixel(int x, int y) {
+        if (x < originX || y < originY || x >= originX + width || y >= originY + height) {
+            throw new IllegalArgumentException("Pixel outside of the canvas: " + x + "," + y);
+        }
+        return (y - originY) * width + (x - originX);
+    }
+
+    /**
+     * Returns the number of placements in a group
+     */
+    int count(int group) {
+        checkGroup(group);
+        return offsets.get(group + 1) - offsets.get(group);
+    }
+
+    /**
+     * Passes the placements of a group to the consumer, in the order they were placed
+     */
+    void read(int group, PlacementConsumer consumer) {
+        checkGroup(group);
+        int end = offsets.get(group + 1);
+        for (int entry = offsets.get(group); entry < end; entry++) {
+            ByteBuffer segment = segments[entry >>> SegmentShift];
+            int position = (entry & ((1 << SegmentShift) - 1)) * EntrySize;
+            long timestamp = baseTimestamp + segment.getInt(position);
+            int value = segment.getInt(position + 4);
+            int color = Byte.toUnsignedInt(segment.get(position + 8));
+            if (key == Key.PIXEL) {
+                consumer.accept(timestamp, value, originX + group % width, originY + group / width, color);
+            } else {
+                consumer.accept(timestamp, group, (short) value, value >> 16, color);
+            }
+        }
+    }
+
+    private void checkGroup(int group) {
+        if (group < 0 || group >= groups) {
+            throw new IllegalArgumentException("No " + key.name().toLowerCase() + " " + group + " in the index");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,189 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Builds a {@link GroupedIndex} from the simplified placements, with a parallel counting sort by its key.
+ * <p>
+ * The placements are split in ranges of records. A first pass counts the placements of every group per range, and
+ * the counts give every range the position it starts writing each group at. A second pass reads the ranges again
+ * and writes every placement straight to its entry in the mapped file. Ranges are in record order, so the entries
+ * of a group are too. Every range keeps an {@code int} per group.
+ */
+final class GroupedIndexBuilder {
+
+    private final PlacementReader reader;
+    private final Path path;
+    private final GroupedIndex.Key key;
+    private final CanvasLayout.Phase bounds;
+    private final int groups;
+    private final int threads;
+
+    /**
+     * Creates a builder for the index of a key in a directory. Users are grouped by id, and need the number of
+     * users.
+     */
+    GroupedIndexBuilder(PlacementReader reader, Path directory, GroupedIndex.Key key, CanvasLayout.Phase bounds, int users, int threads) {
+        this.reader = Objects.requireNonNull(reader);
+        this.path = directory.resolve(key.fileName());
+        this.key = Objects.requireNonNull(key);
+        this.bounds = Objects.requireNonNull(bounds);
+        this.groups = key == GroupedIndex.Key.PIXEL ? bounds.width() * bounds.height() : users + 1;
+        if (threads < 1) {
+            throw new IllegalArgumentException("Index threads must be positive");
+        }
+        this.threads = threads;
+    }
+
+    void build() throws IOException {
+        long count = reader.count();
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many placements for an index");
+        }
+        int parts = (int) Math.max(Math.min(threads, count), 1);
+
+        // Count the placements of every group per range, and the first timestamp
+        int[][] positions = new int[parts][];
+        long[] minTimestamps = new long[parts];
+        runParts(parts, count, (part, from, to) -> {
+            int[] counts = new int[groups];
+            long[] min = {Long.MAX_VALUE};
+            reader.readBatches(from, to, Long.MAX_VALUE, batch -> {
+                for (int i = 0; i < batch.size(); i++) {
+                    counts[group(batch, i)]++;
+                    min[0] = Math.min(min[0], batch.timestamp(i));
+                }
+            });
+            positions[part] = counts;
+            minTimestamps[part] = min[0];
+        });
+        long baseTimestamp = count == 0 ? 0 : Arrays.stream(minTimestamps).min().orElseThrow();
+
+        // Turn the counts into the first entry of every group, and the entry every range starts writing it at
+        int[] offsets = new int[groups + 1];
+        int position = 0;
+        for (int group = 0; group < groups; group++) {
+            offsets[group] = position;
+            for (int part = 0; part < parts; part++) {
+                int partCount = positions[part][group];
+                positions[part][group] = position;
+                position += partCount;
+            }
+        }
+        offsets[groups] = position;
+
+        long entriesPosition = GroupedIndex.HeaderSize + (groups + 1L) * 4;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel
+                .map(FileChannel.MapMode.READ_WRITE, GroupedIndex.HeaderSize, (groups + 1L) * 4)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer()
+                .put(offsets);
+
+            ByteBuffer[] segments = GroupedIndex.mapSegments(channel, FileChannel.MapMode.READ_WRITE, entriesPosition, count);
+            runParts(parts, count, (part, from, to) -> {
+                int[] next = positions[part];
+                reader.readBatches(from, to, Long.MAX_VALUE, batch -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        long delta = batch.timestamp(i) - baseTimestamp;
+                        if (delta > Integer.MAX_VALUE) {
+                            throw new IllegalStateException("Placements span too long for an index");
+                        }
+                        int entry = next[group(batch, i)]++;
+                        ByteBuffer segment = segments[entry >>> GroupedIndex.SegmentShift];
+                        int offset = (entry & ((1 << GroupedIndex.SegmentShift) - 1)) * GroupedIndex.EntrySize;
+                        segment.putInt(offset, (int) delta);
+                        segment.putInt(offset + 4, key == GroupedIndex.Key.PIXEL
+                            ? batch.user(i)
+                            : batch.y(i) << 16 | batch.x(i) & 0xFFFF);
+                        segment.put(offset + 8, (byte) batch.color(i));
+                    }
+                });
+            });
+
+            // The header goes last, so an index that wasn't finished can't be read
+            ByteBuffer header = ByteBuffer.allocate(GroupedIndex.HeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(GroupedIndex.Magic);
+            header.putInt(GroupedIndex.Version);
+            header.putInt(key.ordinal());
+            header.putInt(groups);
+            header.putInt(bounds.minX());
+            header.putInt(bounds.minY());
+            header.putInt(bounds.width());
+            header.putInt(bounds.height());
+            header.putLong(count);
+            header.putLong(baseTimestamp);
+            header.putLong(entriesPosition);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+        System.out.println("Indexed " + count + " placements by " + key.name().toLowerCase());
+    }
+
+    private int group(PlacementBatch batch, int row) {
+        if (key == GroupedIndex.Key.USER) {
+            int user = batch.user(row);
+            if (user < 1 || user >= groups) {
+                throw new IllegalArgumentException("User " + user + " is not in users.txt");
+            }
+            return user;
+        }
+
+        int x = batch.x(row);
+        int y = batch.y(row);
+        if (!bounds.contains(x, y)) {
+            throw new IllegalArgumentException("Placement outside of the canvas: " + x + "," + y);
+        }
+        return (y - bounds.minY()) * bounds.width() + (x - bounds.minX());
+    }
+
+    /**
+     * Runs a task for every range of records in parallel
+     */
+    private void runParts(int parts, long count, PartTask task) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parts);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                int part = i;
+                long from = count * i / parts;
+                long to = count * (i + 1) / parts;
+                futures.add(executor.submit(() -> {
+                    task.run(part, from, to);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    private interface PartTask {
+        void run(int part, long from, long to) throws IOException;
+    }
+
+}
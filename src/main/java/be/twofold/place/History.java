@@ -0,0 +1,100 @@
+package be.twofold.place;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * Collects the placements looked up in a {@link GroupedIndex}, of a pixel or of some users, and prints them
+ */
+final class History implements PlacementConsumer {
+
+    private final long[] timestamps;
+    private final int[] users;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] colors;
+    private int size;
+
+    History(int capacity) {
+        timestamps = new long[capacity];
+        users = new int[capacity];
+        xs = new int[capacity];
+        ys = new int[capacity];
+        colors = new int[capacity];
+    }
+
+    @Override
+    public void accept(long timestamp, int user, int x, int y, int color) {
+        timestamps[size] = timestamp;
+        users[size] = user;
+        xs[size] = x;
+        ys[size] = y;
+        colors[size++] = color;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int x(int i) {
+        return xs[i];
+    }
+
+    int y(int i) {
+        return ys[i];
+    }
+
+    int color(int i) {
+        return colors[i];
+    }
+
+    /**
+     * Puts the placements of several users in the order they were placed. The placements of a user are in order
+     * already, and ties go to the lowest user, like in the placements file.
+     */
+    void sort() {
+        int[] order = new int[size];
+        Arrays.setAll(order, i -> i);
+        IntSorter.sort(order, (i, j) -> {
+            int result = Long.compare(timestamps[i], timestamps[j]);
+            return result != 0 ? result : Integer.compare(users[i], users[j]);
+        });
+        permute(timestamps, order);
+        permute(users, order);
+        permute(xs, order);
+        permute(ys, order);
+        permute(colors, order);
+    }
+
+    private void permute(long[] values, int[] order) {
+        long[] copy = Arrays.copyOf(values, size);
+        for (int i = 0; i < size; i++) {
+            values[i] = copy[order[i]];
+        }
+    }
+
+    private void permute(int[] values, int[] order) {
+        int[] copy = Arrays.copyOf(values, size);
+        for (int i = 0; i < size; i++) {
+            values[i] = copy[order[i]];
+        }
+    }
+
+    void print(Path sourceDirectory, Year year) throws IOException {
+        CanvasLayout layout = CanvasLayout.forYear(year);
+        IndexColorModel colorModel = layout.colorModel(layout.states());
+        Map<Integer, String> names = UsersFile.users(sourceDirectory.resolve(UsersFile.FileName), Arrays.copyOf(users, size));
+        for (int i = 0; i < size; i++) {
+            System.out.printf("%s,%s,%d,%d,%06X%n",
+                Instant.ofEpochMilli(timestamps[i]),
+                names.getOrDefault(users[i], String.valueOf(users[i])),
+                xs[i],
+                ys[i],
+                colorModel.getRGB(colors[i] - layout.colorBase()) & 0xFFFFFF);
+        }
+    }
+
+}
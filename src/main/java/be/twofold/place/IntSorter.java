@@ -0,0 +1,56 @@
+package be.twofold.place;
+
+import java.util.function.*;
+
+/**
+ * Sorts ints with a comparator on the ints themselves, mostly rows or ids that index into columns, without boxing
+ * them. The sort is a stable merge sort, which insertion sorts short ranges.
+ */
+final class IntSorter {
+
+    private static final int InsertionSortThreshold = 16;
+
+    private IntSorter() {
+        throw new UnsupportedOperationException();
+    }
+
+    static void sort(int[] values, IntBinaryOperator comparator) {
+        sort(values, 0, values.length, new int[values.length], comparator);
+    }
+
+    /**
+     * Sorts the values from {@code from} to {@code to}, using the same range of the buffer as scratch space
+     */
+    static void sort(int[] values, int from, int to, int[] buffer, IntBinaryOperator comparator) {
+        if (to - from <= InsertionSortThreshold) {
+            for (int i = from + 1; i < to; i++) {
+                int value = values[i];
+                int j = i;
+                while (j > from && comparator.applyAsInt(values[j - 1], value) > 0) {
+                    values[j] = values[j - 1];
+                    j--;
+                }
+                values[j] = value;
+            }
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        sort(values, from, middle, buffer, comparator);
+        sort(values, middle, to, buffer, comparator);
+        if (comparator.applyAsInt(values[middle - 1], values[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(values, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < middle && comparator.applyAsInt(buffer[left], buffer[right]) <= 0) {
+                values[i] = buffer[left++];
+            } else {
+                values[i] = buffer[right++];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+package be.twofold.place;
+
+import com.sun.management.ThreadMXBean;
+import jdk.jfr.*;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Counters and gauges of the stages of the pipeline, for the whole process. Stages time their work in spans, a span
+ * per chunk, batch, frame or sort, so updating them is cheap next to the work itself. A span adds its items, bytes,
+ * busy time and the bytes its thread allocated to the counters of its stage, and is recorded as a JFR event when a
+ * recording is running. Gauges are read when metrics are reported, and are mostly the depth of a queue between
+ * stages. A gauge can have several values at once, one for every pipeline that runs, which add up.
+ * <p>
+ * Nothing is written unless {@link MetricsReporter} runs, or a flight recording is started with
+ * {@code -XX:StartFlightRecording}, which also gets the counters and gauges every 10 seconds.
+ */
+final class Metrics {
+
+    private static final Map<String, LongAdder> Counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Set<LongSupplier>> Gauges = new ConcurrentSkipListMap<>();
+    private static final ThreadMXBean Threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final boolean CountsAllocations = Threads.isThreadAllocatedMemorySupported()
+        && Threads.isThreadAllocatedMemoryEnabled();
+
+    static {
+        FlightRecorder.addPeriodicEvent(CounterEvent.class, () -> {
+            counters().forEach(CounterEvent::emit);
+            gauges().forEach(CounterEvent::emit);
+        });
+    }
+
+    private Metrics() {
+    }
+
+    static LongAdder counter(String name) {
+        return Counters.computeIfAbsent(name, __ -> new LongAdder());
+    }
+
+    /**
+     * Adds a value to a gauge, which is read every time metrics are reported, until it's removed
+     */
+    static void gauge(String name, LongSupplier value) {
+        Objects.requireNonNull(value);
+        Gauges.computeIfAbsent(name, __ -> ConcurrentHashMap.newKeySet()).add(value);
+    }
+
+    static void removeGauge(String name, LongSupplier value) {
+        Set<LongSupplier> values = Gauges.get(name);
+        if (values != null) {
+            values.remove(value);
+        }
+    }
+
+    static Map<String, Long> counters() {
+        Map<String, Long> result = new TreeMap<>();
+        Counters.forEach((name, counter) -> result.put(name, counter.sum()));
+        return result;
+    }
+
+    static Map<String, Long> gauges() {
+        Map<String, Long> result = new TreeMap<>();
+        Gauges.forEach((name, values) -> {
+            if (!values.isEmpty()) {
+                result.put(name, values.stream().mapToLong(LongSupplier::getAsLong).sum());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Starts timing a piece of work of a stage, on the calling thread
+     */
+    static Span start(String stage) {
+        return new Span(stage);
+    }
+
+    static final class Span {
+        private final String stage;
+        private final StageEvent event = new StageEvent();
+        private final long start;
+        private final long allocatedAtStart;
+
+        private Span(String stage) {
+            this.stage = stage;
+            event.begin();
+            start = System.nanoTime();
+            allocatedAtStart = allocated();
+        }
+
+        /**
+         * Adds the work to the counters of the stage: {@code <stage>.items}, {@code <stage>.bytes},
+         * {@code <stage>.nanos}, the time spent in the stage summed over all threads, and
+         * {@code <stage>.allocated}, the bytes allocated in it
+         */
+        void end(long items, long bytes) {
+            long nanos = System.nanoTime() - start;
+            long allocated = allocated() - allocatedAtStart;
+            counter(stage + ".items").add(items);
+            counter(stage + ".bytes").add(bytes);
+            counter(stage + ".nanos").add(nanos);
+            counter(stage + ".allocated").add(allocated);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage;
+                event.items = items;
+                event.bytes = bytes;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+
+        private static long allocated() {
+            return CountsAllocations ? Threads.getCurrentThreadAllocatedBytes() : 0;
+        }
+    }
+
+    @Name("be.twofold.place.Stage")
+    @Label("Pipeline Stage")
+    @Category("Place")
+    @Description("A piece of work of a stage: a chunk, batch, frame or sort")
+    @StackTrace(false)
+    static final class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Items")
+        long items;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    @Name("be.twofold.place.Counter")
+    @Label("Pipeline Counter")
+    @Category("Place")
+    @Description("The value of every counter and gauge, at the period of the recording settings")
+    @Period("10 s")
+    @StackTrace(false)
+    static final class CounterEvent extends Event {
+        @Label("Name")
+        String name;
+
+        @Label("Value")
+        long value;
+
+        private static void emit(String name, long value) {
+            CounterEvent event = new CounterEvent();
+            event.name = name;
+            event.value = value;
+            event.commit();
+        }
+    }
+
+}
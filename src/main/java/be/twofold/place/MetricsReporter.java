@@ -0,0 +1,153 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Writes the {@link Metrics} to a file as JSON lines while a mode runs: a progress line every interval, and a
+ * summary line when closed, which is also printed as a table.
+ * <p>
+ * Every line has the totals of the counters and their rates, the busy threads of every stage, the gauges, the
+ * collections of every garbage collector and the heap. Rates are per second, over the last interval in progress
+ * lines and over the whole run in the summary, so the rate of {@code <stage>.allocated} is the allocation rate of a
+ * stage. The busy threads of a stage are the time spent in it per second, so 2.0 means two threads were working in
+ * it all the time.
+ */
+final class MetricsReporter implements Closeable {
+
+    private static final String Nanos = ".nanos";
+
+    private final Path path;
+    private final Writer writer;
+    private final ScheduledExecutorService scheduler;
+    private final long startNanos = System.nanoTime();
+    private volatile IOException failure;
+
+    // Owned by the scheduler, and by close once it stopped
+    private Map<String, Long> previousCounters = Map.of();
+    private long previousNanos = startNanos;
+
+    MetricsReporter(Path path, int intervalSeconds) throws IOException {
+        if (intervalSeconds < 1) {
+            throw new IllegalArgumentException("Metrics interval must be positive");
+        }
+        this.path = Objects.requireNonNull(path);
+        this.writer = Files.newBufferedWriter(path);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                report("progress");
+            } catch (IOException e) {
+                failure = e;
+                throw new UncheckedIOException(e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        try (writer) {
+            if (failure != null) {
+                throw failure;
+            }
+            report("summary");
+        }
+        printSummary();
+    }
+
+    private void report(String type) throws IOException {
+        boolean summary = "summary".equals(type);
+        long now = System.nanoTime();
+        Map<String, Long> counters = Metrics.counters();
+        Map<String, Long> since = summary ? Map.of() : previousCounters;
+        double seconds = Math.max(1, now - (summary ? startNanos : previousNanos)) / 1e9;
+
+        Map<String, String> rates = new TreeMap<>();
+        Map<String, String> busy = new TreeMap<>();
+        counters.forEach((name, total) -> {
+            double delta = total - since.getOrDefault(name, 0L);
+            if (name.endsWith(Nanos)) {
+                busy.put(name.substring(0, name.length() - Nanos.length()), format(delta / 1e9 / seconds, 2));
+            } else {
+                rates.put(name, format(delta / seconds, 1));
+            }
+        });
+
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"type\":").append(quote(type));
+        json.append(",\"time\":").append(quote(Instant.now().toString()));
+        json.append(",\"elapsedMillis\":").append((now - startNanos) / 1_000_000);
+        json.append(",\"counters\":").append(object(counters));
+        json.append(",\"rates\":").append(object(rates));
+        json.append(",\"busyThreads\":").append(object(busy));
+        json.append(",\"gauges\":").append(object(Metrics.gauges()));
+
+        Map<String, String> collectors = new TreeMap<>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collectors.put(collector.getName(), "{\"count\":" + collector.getCollectionCount() + ",\"millis\":" + collector.getCollectionTime() + "}");
+        }
+        json.append(",\"gc\":").append(object(collectors));
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        json.append(",\"heap\":{\"used\":").append(heap.getUsed())
+            .append(",\"committed\":").append(heap.getCommitted())
+            .append(",\"max\":").append(heap.getMax()).append('}');
+        json.append('}');
+
+        writer.write(json.toString());
+        writer.write('\n');
+        writer.flush();
+
+        previousCounters = counters;
+        previousNanos = now;
+    }
+
+    private void printSummary() {
+        Map<String, Long> counters = Metrics.counters();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.println("Metrics written to " + path + ", stages over " + format(seconds, 1) + "s:");
+        counters.forEach((name, nanos) -> {
+            if (name.endsWith(Nanos)) {
+                String stage = name.substring(0, name.length() - Nanos.length());
+                long items = counters.getOrDefault(stage + ".items", 0L);
+                long bytes = counters.getOrDefault(stage + ".bytes", 0L);
+                long allocated = counters.getOrDefault(stage + ".allocated", 0L);
+                System.out.println(String.format(Locale.ROOT, "  %-10s %,13d items %,9.1f MB %7.1fs busy %,11.0f items/s %7.1f MB/s %,9.1f MB allocated",
+                    stage, items, bytes / 1e6, nanos / 1e9, items / seconds, bytes / 1e6 / seconds, allocated / 1e6));
+            }
+        });
+    }
+
+    private static String object(Map<String, ?> values) {
+        StringJoiner joiner = new StringJoiner(",", "{", "}");
+        values.forEach((name, value) -> joiner.add(quote(name) + ":" + value));
+        return joiner.toString();
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String format(double value, int decimals) {
+        return String.format(Locale.ROOT, "%." + decimals + "f", value);
+    }
+
+}
@@ -0,0 +1,154 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * The mods of a year in time order, read from {@link #FileName}. Mods are applied before the placements that
+ * have the same or a later timestamp, and before the frames with a later cutoff.
+ */
+final class Mods {
+
+    static final String FileName = "mods.txt";
+
+    private static final Mods Empty = new Mods(new Mod[0]);
+
+    private final Mod[] mods;
+
+    private Mods(Mod[] mods) {
+        this.mods = mods;
+    }
+
+    static Mods of(Collection<Mod> mods) {
+        Mod[] array = mods.toArray(new Mod[0]);
+        Arrays.sort(array);
+        return new Mods(array);
+    }
+
+    /**
+     * Reads the mods in a directory, if there are any
+     */
+    static Mods read(Path directory) throws IOException {
+        Path path = directory.resolve(FileName);
+        if (!Files.exists(path)) {
+            return Empty;
+        }
+        try (Stream<String> lines = Files.lines(path)) {
+            return of(lines.map(line -> {
+                try {
+                    return Mod.parse(line);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unreadable mod in " + path + ", simplify again to rewrite it: " + line, e);
+                }
+            }).collect(Collectors.toList()));
+        }
+    }
+
+    int size() {
+        return mods.length;
+    }
+
+    Mod get(int index) {
+        return mods[index];
+    }
+
+    long timestamp(int index) {
+        return mods[index].getTimestamp();
+    }
+
+    /**
+     * Returns the number of mods up to and including a timestamp
+     */
+    int count(long timestamp) {
+        int low = 0;
+        int high = mods.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mods[mid].getTimestamp() <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Starts applying mods to a canvas, skipping the mods that were applied already
+     */
+    Cursor cursor(Canvas canvas, int applied) {
+        return new Cursor(canvas, applied);
+    }
+
+    /**
+     * Fills the part of a mod that falls in a buffer, which holds the pixels from a corner on, a row at a time.
+     * Rectangles fill their first row and copy it to the others.
+     */
+    static void fill(Mod mod, byte value, byte[] pixels, int originX, int originY, int width, int height) {
+        int fromY = Math.max(mod.getMinY(), originY);
+        int toY = Math.min(mod.getMaxY(), originY + height - 1);
+        int fromX = Math.max(mod.getMinX(), originX);
+        int toX = Math.min(mod.getMaxX(), originX + width - 1);
+        if (fromX > toX || fromY > toY) {
+            return;
+        }
+
+        if (mod.getShape() == Mod.Shape.RECTANGLE) {
+            int first = (fromY - originY) * width + fromX - originX;
+            Arrays.fill(pixels, first, first + toX - fromX + 1, value);
+            for (int y = fromY + 1; y <= toY; y++) {
+                System.arraycopy(pixels, first, pixels, (y - originY) * width + fromX - originX, toX - fromX + 1);
+            }
+            return;
+        }
+
+        // Circles take the span of every row from the center
+        int radius = (mod.getMaxX() - mod.getMinX()) / 2;
+        int centerX = mod.getMinX() + radius;
+        int centerY = mod.getMinY() + radius;
+        for (int y = fromY; y <= toY; y++) {
+            int dy = y - centerY;
+            int span = (int) Math.sqrt((double) radius * radius - dy * dy);
+            int rowFrom = Math.max(centerX - span, fromX);
+            int rowTo = Math.min(centerX + span, toX);
+            if (rowFrom <= rowTo) {
+                int row = (y - originY) * width - originX;
+                Arrays.fill(pixels, row + rowFrom, row + rowTo + 1, value);
+            }
+        }
+    }
+
+    /**
+     * Applies the mods to a canvas as time goes on
+     */
+    final class Cursor {
+        private final Canvas canvas;
+        private int next;
+
+        private Cursor(Canvas canvas, int next) {
+            this.canvas = canvas;
+            this.next = next;
+        }
+
+        /**
+         * Applies the mods up to and including a timestamp
+         */
+        void apply(long timestamp) {
+            while (next < mods.length && mods[next].getTimestamp() <= timestamp) {
+                canvas.fill(mods[next++]);
+            }
+        }
+
+        /**
+         * Returns the number of mods applied so far
+         */
+        int applied() {
+            return next;
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package be.twofold.place;
+
+import java.util.*;
+
+/**
+ * Command line options of the form {@code --key=value} or {@code --flag}
+ */
+final class Options {
+
+    private final Map<String, String> values;
+
+    private Options(Map<String, String> values) {
+        this.values = Map.copyOf(values);
+    }
+
+    static Options parse(List<String> args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Not an option: " + arg);
+            }
+            int index = arg.indexOf('=');
+            if (index < 0) {
+                values.put(arg.substring(2), "true");
+            } else {
+                values.put(arg.substring(2, index), arg.substring(index + 1));
+            }
+        }
+        return new Options(values);
+    }
+
+    static Options empty() {
+        return new Options(Map.of());
+    }
+
+    String getString(String key, String defaultValue) {
+        return values.getOrDefault(key, defaultValue);
+    }
+
+    int getInt(String key, int defaultValue) {
+        String value = values.get(key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    long getLong(String key, long defaultValue) {
+        String value = values.get(key);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    boolean getBoolean(String key) {
+        return Boolean.parseBoolean(values.get(key));
+    }
+
+}
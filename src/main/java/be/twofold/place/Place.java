@@ -11,49 +11,204 @@ public final class Place {
     // TODO: Something about 1490979600 as a cutoff for 2017 I need to check
 
     public static void main(String[] args) throws IOException {
-        if (args.length < 3 || args.length > 4) {
-            System.out.println("Usage: java -jar place.jar <year> <mode> <sourceDirectory> <targetDirectory>");
+        List<String> positional = Arrays.stream(args)
+            .filter(arg -> !arg.startsWith("--"))
+            .collect(Collectors.toList());
+
+        boolean snapshot = positional.size() > 1 && "snapshot".equals(positional.get(1));
+        boolean pixel = positional.size() > 1 && "pixel".equals(positional.get(1));
+        boolean user = positional.size() > 1 && "user".equals(positional.get(1));
+        if (snapshot || pixel || user ? positional.size() != 5 : positional.size() < 3 || positional.size() > 4) {
+            System.out.println("Usage: java -jar place.jar <year> <mode> <sourceDirectory> <targetDirectory> [options]");
+            System.out.println("       java -jar place.jar <year> snapshot <sourceDirectory> <targetDirectory> <timestamp> [options]");
+            System.out.println("       java -jar place.jar <year> pixel <sourceDirectory> <x> <y>");
+            System.out.println("       java -jar place.jar <year> user <sourceDirectory> <targetDirectory> <user>[,<user>...] [options]");
             System.out.println("  - year can be any of '2017', '2022' or '2023'");
-            System.out.println("  - mode can be any of 'simplify', 'render'");
+            System.out.println("  - mode can be any of 'simplify', 'render', 'expand', 'snapshot', 'analyze', 'pixel', 'user'");
+            System.out.println("  - timestamp is an instant like 2022-04-02T12:00:00Z, or milliseconds since the epoch");
+            System.out.println("  - user is a user as it appears in users.txt");
+            System.out.println("Options:");
+            System.out.println("  --format=<text|binary>     format of the simplified placements (default: binary)");
+            System.out.println("  --snapshot-interval=<minutes>");
+            System.out.println("                             time between canvas snapshots in the index, 0 for none (default: 60)");
+            System.out.println("  --tile-index               also bucket the placements by tile, for tiled rendering");
+            System.out.println("  --pixel-index              also group the placements by pixel, for the pixel mode");
+            System.out.println("  --user-index               also group the placements by user, for the user mode");
+            System.out.println("  --sort=<memory|external|streaming>");
+            System.out.println("                             sort placements in memory, in runs on disk, or merge the");
+            System.out.println("                             files as they are read (default: memory)");
+            System.out.println("  --sort-memory=<megabytes>  memory used by the external sort (default: 1024)");
+            System.out.println("  --reorder-window=<count>   placements buffered per file by the streaming merge (default: 100000)");
+            System.out.println("  --decompress-threads=<n>   threads decompressing source files (default: half the cores)");
+            System.out.println("  --parse-threads=<n>        threads parsing lines (default: all cores)");
+            System.out.println("  --chunk-size=<megabytes>   size of the chunks passed from decompressing to parsing (default: 4)");
+            System.out.println("  --single-pass              assign user ids while parsing placements, reading the sources once");
+            System.out.println("  --user-order=<sorted|first-seen>");
+            System.out.println("                             order of the user ids in a single pass (default: sorted)");
+            System.out.println("  --incremental              cache what every source file parses into, and only parse the files");
+            System.out.println("                             that changed since, merging them all again (ignores --sort)");
+            System.out.println("  --cache-directory=<dir>    where the source files are cached (default: cache in the target directory)");
+            System.out.println("  --output=<png|delta|y4m|rgb>");
+            System.out.println("                             write every frame as an image, keyframes and changed tiles, or");
+            System.out.println("                             uncompressed y4m or rgb24 video (default: png)");
+            System.out.println("  --frame-interval=<seconds> time between rendered frames (default: 300)");
+            System.out.println("  --render-threads=<n>       render parts of the timeline in parallel, png output only unless");
+            System.out.println("                             tiled (default: 1)");
+            System.out.println("  --tiled                    render every tile on its own, from the tile index");
+            System.out.println("  --region=<x>,<y>,<w>,<h>   only render this part of the canvas, from the tile index");
+            System.out.println("  --keyframe-interval=<n>    frames from one keyframe to the next in delta output (default: 12)");
+            System.out.println("  --video-output=<file|->    file the video is written to, or - for standard output (default:");
+            System.out.println("                             place.y4m or place.rgb in the target directory)");
+            System.out.println("  --video-size=<w>x<h>       size of video frames (default: the largest canvas of the year)");
+            System.out.println("  --fps=<n>                  frame rate in the y4m header (default: 30)");
+            System.out.println("  --analyze-threads=<n>      threads aggregating placements in analyze mode (default: all cores)");
+            System.out.println("  --analyze-interval=<minutes>");
+            System.out.println("                             time between rows of the color usage in analyze mode (default: 60)");
+            System.out.println("  --png-level=<0-9>          deflate level of rendered frames (default: 1)");
+            System.out.println("  --png-filter=<none|sub|up|average|paeth>");
+            System.out.println("                             filter applied to the rows of rendered frames (default: none)");
+            System.out.println("  --png-chunks=<n>           parts of a frame that are deflated in parallel (default: all cores)");
+            System.out.println("  --metrics=<file>           write throughput, queue depths and GC of every stage to a file as JSON");
+            System.out.println("                             lines while running, and a summary at the end");
+            System.out.println("  --metrics-interval=<seconds>");
+            System.out.println("                             time between progress lines in the metrics (default: 10)");
             System.exit(1);
         }
 
-        Year year = validateYear(args[0]);
-        Properties properties = loadProperties(year);
-        String mode = args[1];
-        Path sourceDirectory = Path.of(args[2]);
-        Path targetDirectory = args.length == 4 ? Path.of(args[3]) : sourceDirectory;
+        Options options = Options.parse(Arrays.stream(args)
+            .filter(arg -> arg.startsWith("--"))
+            .collect(Collectors.toList()));
+
+        Year year = validateYear(positional.get(0));
+        Properties properties = CanvasLayout.loadProperties(year);
+        String mode = positional.get(1);
+        Path sourceDirectory = Path.of(positional.get(2));
+        Path targetDirectory = positional.size() >= 4 && !pixel ? Path.of(positional.get(3)) : sourceDirectory;
         Files.createDirectories(targetDirectory);
 
-        if ("simplify".equals(mode)) {
-            List<Path> sourceFiles = scanFiles(sourceDirectory, properties.getProperty("file_regex"));
-            Simplifier simplifier = new Simplifier(sourceFiles, targetDirectory, year);
-            simplifier.simplify();
-        } else if ("render".equals(mode)) {
-            Path placementsPath = sourceDirectory.resolve("placements.txt");
-            new Renderer(placementsPath, targetDirectory, year).render();
+        // Metrics cover the whole mode, and the summary is written when it's done
+        String metrics = options.getString("metrics", null);
+        MetricsReporter reporter = metrics != null
+            ? new MetricsReporter(Path.of(metrics), options.getInt("metrics-interval", 10))
+            : null;
+        try {
+            if ("simplify".equals(mode)) {
+                List<Path> sourceFiles = scanFiles(sourceDirectory, properties.getProperty("file_regex"));
+                Simplifier simplifier = new Simplifier(sourceFiles, targetDirectory, year, options);
+                simplifier.simplify();
+            } else if ("render".equals(mode)) {
+                PlacementFormat format = PlacementFormat.detect(sourceDirectory);
+                PlacementReader reader = format.newReader(format.resolve(sourceDirectory));
+                Mods mods = Mods.read(sourceDirectory);
+                if (options.getBoolean("tiled") || options.getString("region", null) != null) {
+                    try (TileIndex tiles = new TileIndex(sourceDirectory.resolve(TileIndex.FileName))) {
+                        new TiledRenderer(reader, tiles, mods, targetDirectory, year, options).render();
+                    }
+                } else {
+                    new Renderer(reader, mods, targetDirectory, year, options).render();
+                }
+            } else if ("expand".equals(mode)) {
+                // Turns delta frames back into full images, or any of the other outputs
+                FrameFormat format = FrameFormat.parse(options.getString("output", "png"));
+                try (DeltaFrameReader frames = new DeltaFrameReader(sourceDirectory);
+                     FrameWriter writer = format.newWriter(targetDirectory, year, options)) {
+                    for (int i = 0; i < frames.size(); i++) {
+                        writer.write(frames.read(i));
+                    }
+                }
+            } else if ("snapshot".equals(mode)) {
+                long timestamp = parseTimestamp(positional.get(4));
+                FrameFormat format = FrameFormat.parse(options.getString("output", "png"));
+                try (FrameWriter writer = format.newWriter(targetDirectory, year, options)) {
+                    writer.write(snapshot(sourceDirectory, year, timestamp));
+                }
+            } else if ("analyze".equals(mode)) {
+                PlacementFormat format = PlacementFormat.detect(sourceDirectory);
+                PlacementReader reader = format.newReader(format.resolve(sourceDirectory));
+                new Analyzer(reader, sourceDirectory.resolve(UsersFile.FileName), targetDirectory, year, options).analyze();
+            } else if (pixel) {
+                pixel(sourceDirectory, year, Integer.parseInt(positional.get(3)), Integer.parseInt(positional.get(4)));
+            } else if (user) {
+                new UserLookup(sourceDirectory, targetDirectory, year, options).lookUp(List.of(positional.get(4).split(",")));
+            } else {
+                System.out.println("Unknown mode: " + mode);
+                System.exit(1);
+            }
+        } finally {
+            if (reporter != null) {
+                reporter.close();
+            }
+        }
+    }
+
+    /**
+     * Renders the canvas at a timestamp, from the last snapshot before it and the placements after that
+     */
+    private static Frame snapshot(Path sourceDirectory, Year year, long timestamp) throws IOException {
+        long start = System.nanoTime();
+        Canvas canvas = Canvas.forYear(year);
+        Mods mods = Mods.read(sourceDirectory);
+        long fromRecord = 0;
+        int applied = 0;
+
+        Path indexPath = sourceDirectory.resolve(SnapshotIndex.FileName);
+        if (Files.exists(indexPath)) {
+            try (SnapshotIndex index = new SnapshotIndex(indexPath)) {
+                int snapshot = index.find(timestamp);
+                if (snapshot >= 0) {
+                    index.restore(snapshot, canvas);
+                    fromRecord = index.record(snapshot);
+                    applied = mods.count(index.cutoff(snapshot));
+                    System.out.println("Starting from the snapshot at " + Instant.ofEpochMilli(index.cutoff(snapshot)));
+                }
+            }
         } else {
-            System.out.println("Unknown mode: " + mode);
-            System.exit(1);
+            System.out.println("No snapshot index, replaying all placements");
         }
+
+        PlacementFormat format = PlacementFormat.detect(sourceDirectory);
+        Mods.Cursor cursor = mods.cursor(canvas, applied);
+        long[] replayed = {0};
+        format.newReader(format.resolve(sourceDirectory)).read(fromRecord, timestamp, (ts, user, x, y, color) -> {
+            cursor.apply(ts);
+            canvas.place(ts, x, y, color);
+            replayed[0]++;
+        });
+        cursor.apply(timestamp);
+        System.out.println("Replayed " + replayed[0] + " placements in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        return canvas.frame(timestamp);
+    }
+
+    /**
+     * Prints who placed a pixel when, from the pixel index
+     */
+    private static void pixel(Path sourceDirectory, Year year, int x, int y) throws IOException {
+        try (GroupedIndex index = new GroupedIndex(sourceDirectory, GroupedIndex.Key.PIXEL)) {
+            int pixel = index.pixel(x, y);
+            History history = new History(index.count(pixel));
+            long start = System.nanoTime();
+            index.read(pixel, history);
+            long micros = (System.nanoTime() - start) / 1_000;
+            System.out.println("Found " + history.size() + " placements on " + x + "," + y + " in " + micros + "us");
+            history.print(sourceDirectory, year);
+        }
+    }
+
+    private static long parseTimestamp(String s) {
+        if (s.chars().allMatch(Character::isDigit)) {
+            return Long.parseLong(s);
+        }
+        return Instant.parse(s).toEpochMilli();
     }
 
     private static Year validateYear(String s) {
         Year year = Year.parse(s);
         if (year.getValue() != 2017 && year.getValue() != 2022 && year.getValue() != 2023) {
-            throw new IllegalArgumentException("Year must be 2017 or 2022");
+            throw new IllegalArgumentException("Year must be 2017, 2022 or 2023");
         }
         return year;
     }
 
-    private static Properties loadProperties(Year year) throws IOException {
-        try (InputStream in = Place.class.getResourceAsStream("/" + year + ".properties")) {
-            Properties properties = new Properties();
-            properties.load(in);
-            return properties;
-        }
-    }
-
     private static List<Path> scanFiles(Path root, String regex) throws IOException {
         try (Stream<Path> list = Files.list(root)) {
             return list
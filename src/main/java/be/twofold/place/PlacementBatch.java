@@ -0,0 +1,121 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+/**
+ * A few thousand placements as a column of primitives per field, which is how placements go from one stage to the
+ * next. Batches are filled, handed on, and cleared to be filled again, so nothing is allocated per placement. A
+ * batch belongs to the stage that fills it, and can only be read during the call it is handed on in.
+ */
+final class PlacementBatch {
+
+    static final int Size = 4096;
+
+    private final long[] timestamps;
+    private final int[] users;
+    private final short[] xs;
+    private final short[] ys;
+    private final byte[] colors;
+    private int size;
+
+    PlacementBatch() {
+        this(Size);
+    }
+
+    PlacementBatch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        timestamps = new long[capacity];
+        users = new int[capacity];
+        xs = new short[capacity];
+        ys = new short[capacity];
+        colors = new byte[capacity];
+    }
+
+    void add(long timestamp, int user, int x, int y, int color) {
+        timestamps[size] = timestamp;
+        users[size] = user;
+        xs[size] = (short) x;
+        ys[size] = (short) y;
+        colors[size] = (byte) color;
+        size++;
+    }
+
+    void add(Placement placement) {
+        add(placement.getTimestamp(), placement.getUser(), placement.getX(), placement.getY(), placement.getColor());
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Sets the number of rows, for readers that fill the columns in bulk
+     */
+    void setSize(int size) {
+        if (size < 0 || size > timestamps.length) {
+            throw new IllegalArgumentException("Size out of range: " + size);
+        }
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isFull() {
+        return size == timestamps.length;
+    }
+
+    long timestamp(int row) {
+        return timestamps[row];
+    }
+
+    int user(int row) {
+        return users[row];
+    }
+
+    int x(int row) {
+        return xs[row];
+    }
+
+    int y(int row) {
+        return ys[row];
+    }
+
+    int color(int row) {
+        return Byte.toUnsignedInt(colors[row]);
+    }
+
+    Placement placement(int row) {
+        return new Placement(timestamps[row], users[row], xs[row], ys[row], Byte.toUnsignedInt(colors[row]));
+    }
+
+    // Bulk access for the columns, to copy whole batches at once
+
+    long[] timestamps() {
+        return timestamps;
+    }
+
+    int[] users() {
+        return users;
+    }
+
+    short[] xs() {
+        return xs;
+    }
+
+    short[] ys() {
+        return ys;
+    }
+
+    byte[] colors() {
+        return colors;
+    }
+
+}
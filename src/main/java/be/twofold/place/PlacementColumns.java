@@ -0,0 +1,118 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Placements held as a column of primitives per field, which takes 17 bytes per placement instead of an object
+ * and a reference. The columns grow as placements are added.
+ */
+final class PlacementColumns {
+
+    private long[] timestamps;
+    private int[] users;
+    private short[] xs;
+    private short[] ys;
+    private byte[] colors;
+    private int size;
+
+    PlacementColumns() {
+        this(1024);
+    }
+
+    PlacementColumns(int capacity) {
+        timestamps = new long[capacity];
+        users = new int[capacity];
+        xs = new short[capacity];
+        ys = new short[capacity];
+        colors = new byte[capacity];
+    }
+
+    /**
+     * Adds a batch of placements, from any thread
+     */
+    synchronized void addAll(PlacementBatch batch) {
+        int count = batch.size();
+        ensureCapacity(size + count);
+        System.arraycopy(batch.timestamps(), 0, timestamps, size, count);
+        System.arraycopy(batch.users(), 0, users, size, count);
+        System.arraycopy(batch.xs(), 0, xs, size, count);
+        System.arraycopy(batch.ys(), 0, ys, size, count);
+        System.arraycopy(batch.colors(), 0, colors, size, count);
+        size += count;
+    }
+
+    /**
+     * Hands the rows on in the given order, a batch at a time
+     */
+    void forEachBatch(int[] order, PlacementBatch batch, BatchHandler handler) throws IOException {
+        for (int i = 0; i < order.length; i++) {
+            int row = order[i];
+            batch.add(timestamps[row], users[row], xs[row], ys[row], colors[row]);
+            if (batch.isFull() || i == order.length - 1) {
+                handler.handle(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Replaces every user with the id it maps to
+     */
+    void mapUsers(int[] ids) {
+        for (int i = 0; i < size; i++) {
+            users[i] = ids[users[i]];
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long timestamp(int row) {
+        return timestamps[row];
+    }
+
+    int user(int row) {
+        return users[row];
+    }
+
+    short x(int row) {
+        return xs[row];
+    }
+
+    short y(int row) {
+        return ys[row];
+    }
+
+    int color(int row) {
+        return Byte.toUnsignedInt(colors[row]);
+    }
+
+    Placement placement(int row) {
+        return new Placement(timestamps[row], users[row], xs[row], ys[row], Byte.toUnsignedInt(colors[row]));
+    }
+
+    @FunctionalInterface
+    interface BatchHandler {
+        void handle(PlacementBatch batch) throws IOException;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalStateException("Too many placements for a single sort");
+        }
+        if (capacity <= timestamps.length) {
+            return;
+        }
+        int grown = Math.min(Integer.MAX_VALUE - 8, Math.max(capacity, timestamps.length + (timestamps.length >> 1)));
+        timestamps = Arrays.copyOf(timestamps, grown);
+        users = Arrays.copyOf(users, grown);
+        xs = Arrays.copyOf(xs, grown);
+        ys = Arrays.copyOf(ys, grown);
+        colors = Arrays.copyOf(colors, grown);
+    }
+
+}
@@ -0,0 +1,11 @@
+package be.twofold.place;
+
+/**
+ * Receives placements as primitives, so readers don't have to allocate per record
+ */
+@FunctionalInterface
+interface PlacementConsumer {
+
+    void accept(long timestamp, int user, int x, int y, int color);
+
+}
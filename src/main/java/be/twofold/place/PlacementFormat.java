@@ -0,0 +1,54 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+
+/**
+ * The on-disk formats for simplified placements
+ */
+enum PlacementFormat {
+    TEXT("placements.txt"),
+    BINARY("placements.bin");
+
+    private final String fileName;
+
+    PlacementFormat(String fileName) {
+        this.fileName = fileName;
+    }
+
+    static PlacementFormat parse(String s) {
+        return valueOf(s.toUpperCase());
+    }
+
+    /**
+     * Finds the placements in a directory, preferring the binary format when both are present
+     */
+    static PlacementFormat detect(Path directory) {
+        if (Files.exists(BINARY.resolve(directory))) {
+            return BINARY;
+        }
+        if (Files.exists(TEXT.resolve(directory))) {
+            return TEXT;
+        }
+        throw new IllegalArgumentException("No placements found in " + directory);
+    }
+
+    Path resolve(Path directory) {
+        return directory.resolve(fileName);
+    }
+
+    PlacementWriter newWriter(Path path, Year year) throws IOException {
+        return switch (this) {
+            case TEXT -> new TextPlacementWriter(path);
+            case BINARY -> new BinaryPlacementWriter(path, year.getValue());
+        };
+    }
+
+    PlacementReader newReader(Path path) {
+        return switch (this) {
+            case TEXT -> new TextPlacementReader(path);
+            case BINARY -> new BinaryPlacementReader(path);
+        };
+    }
+}
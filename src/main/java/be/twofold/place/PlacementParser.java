@@ -0,0 +1,15 @@
+package be.twofold.place;
+
+/**
+ * Parses a single line of a source file
+ */
+@FunctionalInterface
+interface PlacementParser {
+
+    /**
+     * Adds the placement on the line in [start, end) to a batch that has room, and returns false if the line holds
+     * none
+     */
+    boolean parse(byte[] buffer, int start, int end, PlacementBatch batch);
+
+}
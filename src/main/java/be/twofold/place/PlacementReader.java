@@ -0,0 +1,53 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.util.function.*;
+
+/**
+ * Reads simplified placements back, in the order they were written
+ */
+interface PlacementReader {
+
+    default void read(PlacementConsumer consumer) throws IOException {
+        read(0, Long.MAX_VALUE, Long.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Reads the placements from a record on, up to and including a timestamp
+     */
+    default void read(long fromRecord, long untilTimestamp, PlacementConsumer consumer) throws IOException {
+        read(fromRecord, Long.MAX_VALUE, untilTimestamp, consumer);
+    }
+
+    /**
+     * Reads the placements from a record on, and before another one, up to and including a timestamp
+     */
+    void read(long fromRecord, long toRecord, long untilTimestamp, PlacementConsumer consumer) throws IOException;
+
+    default void readBatches(Consumer<PlacementBatch> consumer) throws IOException {
+        readBatches(0, Long.MAX_VALUE, Long.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Reads the same placements a batch at a time. The batch is reused, so the consumer can't hold on to it.
+     */
+    default void readBatches(long fromRecord, long toRecord, long untilTimestamp, Consumer<PlacementBatch> consumer) throws IOException {
+        PlacementBatch batch = new PlacementBatch();
+        read(fromRecord, toRecord, untilTimestamp, (timestamp, user, x, y, color) -> {
+            batch.add(timestamp, user, x, y, color);
+            if (batch.isFull()) {
+                consumer.accept(batch);
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+    }
+
+    /**
+     * Returns the number of placements
+     */
+    long count() throws IOException;
+
+}
@@ -0,0 +1,23 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.io.*;
+
+/**
+ * Writes simplified placements, in timestamp order
+ */
+interface PlacementWriter extends Closeable {
+
+    void write(Placement placement) throws IOException;
+
+    /**
+     * Writes a batch of placements. Writers that keep their placements as primitives write them without allocating.
+     */
+    default void write(PlacementBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            write(batch.placement(i));
+        }
+    }
+
+}
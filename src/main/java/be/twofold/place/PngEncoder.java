@@ -0,0 +1,278 @@
+package be.twofold.place;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+import java.util.zip.*;
+
+/**
+ * Writes 8-bit indexed PNG images straight from a buffer with a palette index per pixel.
+ * <p>
+ * The rows are split in chunks, which are filtered and deflated in parallel. Every chunk but the last ends with a
+ * sync flush, which byte aligns the compressed data, so the chunks simply follow each other in a single zlib stream.
+ * Buffers and deflaters are kept from one image to the next, so an encoder must not be shared between threads.
+ */
+final class PngEncoder {
+
+    private static final byte[] Signature = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int BitDepth = 8;
+    private static final int ColorTypeIndexed = 3;
+
+    private final int level;
+    private final Filter filter;
+    private final Chunk[] chunks;
+    private final CRC32 crc = new CRC32();
+    private final Adler32 adler = new Adler32();
+    private final byte[] header = new byte[8];
+
+    PngEncoder(int level, Filter filter, int chunks) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Deflate level must be between 0 and 9");
+        }
+        if (chunks < 1) {
+            throw new IllegalArgumentException("Chunks must be positive");
+        }
+        this.level = level;
+        this.filter = Objects.requireNonNull(filter);
+        this.chunks = new Chunk[chunks];
+        for (int i = 0; i < chunks; i++) {
+            this.chunks[i] = new Chunk();
+        }
+    }
+
+    void write(byte[] pixels, int width, int height, IndexColorModel colorModel, Path path) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+            write(pixels, width, height, colorModel, out);
+        }
+    }
+
+    void write(byte[] pixels, int width, int height, IndexColorModel colorModel, OutputStream out) throws IOException {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " pixels, but got " + pixels.length);
+        }
+
+        out.write(Signature);
+        writeHeader(width, height, out);
+        writePalette(colorModel, out);
+
+        // Split the rows as evenly as possible over the chunks that are used
+        int used = Math.min(chunks.length, height);
+        IntStream.range(0, used).parallel().forEach(i -> {
+            int from = (int) ((long) height * i / used);
+            int to = (int) ((long) height * (i + 1) / used);
+            chunks[i].compress(pixels, width, from, to, i == used - 1);
+        });
+
+        adler.reset();
+        for (int i = 0; i < used; i++) {
+            Chunk chunk = chunks[i];
+            adler.update(chunk.filtered, 0, chunk.filteredLength);
+
+            // The zlib header goes in front of the first chunk, and the checksum after the last
+            boolean first = i == 0;
+            boolean last = i == used - 1;
+            writeChunkHeader(chunk.compressedLength + (first ? 2 : 0) + (last ? 4 : 0), "IDAT", out);
+            if (first) {
+                writeChunkData(zlibHeader(), 0, 2, out);
+            }
+            writeChunkData(chunk.compressed, 0, chunk.compressedLength, out);
+            if (last) {
+                byte[] checksum = new byte[4];
+                putInt(checksum, 0, (int) adler.getValue());
+                writeChunkData(checksum, 0, checksum.length, out);
+            }
+            writeChunkEnd(out);
+        }
+
+        writeChunkHeader(0, "IEND", out);
+        writeChunkEnd(out);
+    }
+
+    private void writeHeader(int width, int height, OutputStream out) throws IOException {
+        byte[] data = new byte[13];
+        putInt(data, 0, width);
+        putInt(data, 4, height);
+        data[8] = BitDepth;
+        data[9] = ColorTypeIndexed;
+        // Compression, filter and interlace methods are all 0
+
+        writeChunkHeader(data.length, "IHDR", out);
+        writeChunkData(data, 0, data.length, out);
+        writeChunkEnd(out);
+    }
+
+    private void writePalette(IndexColorModel colorModel, OutputStream out) throws IOException {
+        int size = colorModel.getMapSize();
+        byte[] data = new byte[size * 3];
+        for (int i = 0; i < size; i++) {
+            data[i * 3] = (byte) colorModel.getRed(i);
+            data[i * 3 + 1] = (byte) colorModel.getGreen(i);
+            data[i * 3 + 2] = (byte) colorModel.getBlue(i);
+        }
+
+        writeChunkHeader(data.length, "PLTE", out);
+        writeChunkData(data, 0, data.length, out);
+        writeChunkEnd(out);
+
+        // Palettes with transparent colors also get the alpha of every color
+        if (colorModel.hasAlpha()) {
+            byte[] alpha = new byte[size];
+            for (int i = 0; i < size; i++) {
+                alpha[i] = (byte) colorModel.getAlpha(i);
+            }
+            writeChunkHeader(alpha.length, "tRNS", out);
+            writeChunkData(alpha, 0, alpha.length, out);
+            writeChunkEnd(out);
+        }
+    }
+
+    private byte[] zlibHeader() {
+        // Deflate with a 32K window, and the level as a hint for decoders
+        int cmf = 0x78;
+        int hint = level <= 1 ? 0 : level <= 5 ? 1 : level == 6 ? 2 : 3;
+        int flg = hint << 6;
+        flg += 31 - (cmf * 256 + flg) % 31;
+        return new byte[]{(byte) cmf, (byte) flg};
+    }
+
+    private void writeChunkHeader(int length, String type, OutputStream out) throws IOException {
+        putInt(header, 0, length);
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(typeBytes, 0, header, 4, 4);
+        out.write(header, 0, 8);
+
+        crc.reset();
+        crc.update(typeBytes);
+    }
+
+    private void writeChunkData(byte[] data, int offset, int length, OutputStream out) throws IOException {
+        out.write(data, offset, length);
+        crc.update(data, offset, length);
+    }
+
+    private void writeChunkEnd(OutputStream out) throws IOException {
+        putInt(header, 0, (int) crc.getValue());
+        out.write(header, 0, 4);
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private final class Chunk {
+        private final Deflater deflater = new Deflater(level, true);
+        private byte[] filtered = new byte[0];
+        private int filteredLength;
+        private byte[] compressed = new byte[0];
+        private int compressedLength;
+
+        private void compress(byte[] pixels, int width, int from, int to, boolean last) {
+            filteredLength = (to - from) * (width + 1);
+            if (filtered.length < filteredLength) {
+                filtered = new byte[filteredLength];
+            }
+            for (int y = from, offset = 0; y < to; y++, offset += width + 1) {
+                filtered[offset] = (byte) filter.ordinal();
+                filter.apply(pixels, y * width, y > 0 ? (y - 1) * width : -1, width, filtered, offset + 1);
+            }
+
+            deflater.reset();
+            deflater.setInput(filtered, 0, filteredLength);
+            compressedLength = 0;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    ensureSpace();
+                    compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+                }
+            } else {
+                // A full output buffer means the flush might not be done yet
+                int space;
+                int written;
+                do {
+                    ensureSpace();
+                    space = compressed.length - compressedLength;
+                    written = deflater.deflate(compressed, compressedLength, space, Deflater.SYNC_FLUSH);
+                    compressedLength += written;
+                } while (written == space);
+            }
+        }
+
+        private void ensureSpace() {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, Math.max(compressed.length * 2, 1 << 16));
+            }
+        }
+    }
+
+    /**
+     * The PNG filter types, in the order of their type byte
+     */
+    enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH;
+
+        static Filter parse(String s) {
+            try {
+                return valueOf(s.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown PNG filter: " + s);
+            }
+        }
+
+        /**
+         * Filters a row of one byte pixels, the previous row is at {@code -1} for the first row of the image
+         */
+        void apply(byte[] pixels, int row, int previous, int width, byte[] target, int offset) {
+            switch (this) {
+                case NONE -> System.arraycopy(pixels, row, target, offset, width);
+                case SUB -> {
+                    target[offset] = pixels[row];
+                    for (int i = 1; i < width; i++) {
+                        target[offset + i] = (byte) (pixels[row + i] - pixels[row + i - 1]);
+                    }
+                }
+                case UP -> {
+                    for (int i = 0; i < width; i++) {
+                        target[offset + i] = (byte) (pixels[row + i] - above(pixels, previous, i));
+                    }
+                }
+                case AVERAGE -> {
+                    for (int i = 0; i < width; i++) {
+                        int left = i > 0 ? pixels[row + i - 1] & 0xFF : 0;
+                        target[offset + i] = (byte) (pixels[row + i] - ((left + above(pixels, previous, i)) >>> 1));
+                    }
+                }
+                case PAETH -> {
+                    for (int i = 0; i < width; i++) {
+                        int left = i > 0 ? pixels[row + i - 1] & 0xFF : 0;
+                        int upperLeft = i > 0 ? above(pixels, previous, i - 1) : 0;
+                        int predictor = paeth(left, above(pixels, previous, i), upperLeft);
+                        target[offset + i] = (byte) (pixels[row + i] - predictor);
+                    }
+                }
+            }
+        }
+
+        private static int above(byte[] pixels, int previous, int i) {
+            return previous < 0 ? 0 : pixels[previous + i] & 0xFF;
+        }
+
+        private static int paeth(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            if (pa <= pb && pa <= pc) {
+                return a;
+            }
+            return pb <= pc ? b : c;
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package be.twofold.place;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Writes every frame as a full PNG image. Images are encoded on a pool in the background. Every frame goes to its own
+ * file, so frames can be written in any order, and from several threads at once.
+ */
+final class PngFrameWriter implements FrameWriter {
+
+    private final Path directory;
+    private final ExecutorService pool;
+    private final LongSupplier queued;
+    private final ThreadLocal<PngEncoder> encoders;
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    PngFrameWriter(Path directory, Options options) {
+        this.directory = Objects.requireNonNull(directory);
+
+        int processors = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        LinkedBlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>(processors * 2);
+        pool = new ThreadPoolExecutor(processors, processors, 1, TimeUnit.MINUTES, workQueue);
+        queued = workQueue::size;
+        Metrics.gauge("png.queue", queued);
+
+        int level = options.getInt("png-level", 1);
+        PngEncoder.Filter filter = PngEncoder.Filter.parse(options.getString("png-filter", "none"));
+        int chunks = options.getInt("png-chunks", Runtime.getRuntime().availableProcessors());
+        encoders = ThreadLocal.withInitial(() -> new PngEncoder(level, filter, chunks));
+        encoders.get(); // Fail early on invalid settings, instead of on every frame
+    }
+
+    @Override
+    public void write(Frame frame) throws IOException {
+        checkFailure();
+
+        // Encoding happens in the background, so hand off a copy of the pixels in a recycled buffer
+        int length = frame.width() * frame.height();
+        byte[] pixels = buffers.poll();
+        if (pixels == null || pixels.length != length) {
+            pixels = new byte[length];
+        }
+        System.arraycopy(frame.pixels(), 0, pixels, 0, length);
+        byte[] copy = pixels;
+        int width = frame.width();
+        int height = frame.height();
+        IndexColorModel colorModel = frame.colorModel();
+
+        System.out.println("Dumping image: " + frame.state() + "\\" + frame.formattedDate());
+        Path path = directory.resolve(frame.name() + ".png");
+
+        while (true) {
+            try {
+                pool.execute(() -> {
+                    try {
+                        if (failure.get() == null) {
+                            Metrics.Span span = Metrics.start("png");
+                            encoders.get().write(copy, width, height, colorModel, path);
+                            span.end(1, Files.size(path));
+                        }
+                    } catch (Throwable t) {
+                        // Encoders run in parallel, so a later failure must not replace the first one
+                        if (!failure.compareAndSet(null, t) && failure.get() != t) {
+                            failure.get().addSuppressed(t);
+                        }
+                    } finally {
+                        buffers.offer(copy);
+                    }
+                });
+                break;
+            } catch (RejectedExecutionException e) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            Metrics.removeGauge("png.queue", queued);
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new IOException("Could not write frames", t);
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package be.twofold.place;
+
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Sorts placements held in columns in the order of {@link be.twofold.place.model.Placement#compareTo}, with a
+ * parallel LSD radix sort over the bytes of the color, y, x, user and timestamp, least significant first.
+ * <p>
+ * Every pass is stable, so ties on the timestamp are broken by the other fields, and the order doesn't depend on
+ * the order the placements came in. Only a permutation of the rows is sorted, so the columns stay where they are.
+ * A pass counts the bytes of every part of the rows in parallel, and then moves every part to its place in
+ * parallel. Passes where all rows have the same byte are skipped, which leaves about 12 passes for a year.
+ */
+final class RadixSorter {
+
+    private static final int Radix = 256;
+
+    private enum Key {COLOR, Y, X, USER, TIMESTAMP}
+
+    private record Pass(Key key, int shift) {
+    }
+
+    private final int threads;
+
+    RadixSorter(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Sort threads must be positive");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the rows in sorted order
+     */
+    int[] sort(PlacementColumns columns) {
+        Metrics.Span span = Metrics.start("sort");
+        int[] order = sortRows(columns);
+        span.end(order.length, 0);
+        return order;
+    }
+
+    private int[] sortRows(PlacementColumns columns) {
+        int size = columns.size();
+        int[] order = new int[size];
+        Arrays.parallelSetAll(order, i -> i);
+        if (size < 2) {
+            return order;
+        }
+
+        // Timestamps are sorted relative to the earliest one, which leaves fewer bytes to go through
+        long min = IntStream.range(0, size).parallel().mapToLong(columns::timestamp).min().orElseThrow();
+        long max = IntStream.range(0, size).parallel().mapToLong(columns::timestamp).max().orElseThrow();
+        int timestampBytes = (64 - Long.numberOfLeadingZeros(max - min) + 7) / 8;
+
+        int[] buffer = new int[size];
+        byte[] digits = new byte[size];
+        List<Pass> passes = new ArrayList<>();
+        passes.add(new Pass(Key.COLOR, 0));
+        for (int shift = 0; shift < 16; shift += 8) {
+            passes.add(new Pass(Key.Y, shift));
+        }
+        for (int shift = 0; shift < 16; shift += 8) {
+            passes.add(new Pass(Key.X, shift));
+        }
+        for (int shift = 0; shift < 32; shift += 8) {
+            passes.add(new Pass(Key.USER, shift));
+        }
+        for (int shift = 0; shift < timestampBytes * 8; shift += 8) {
+            passes.add(new Pass(Key.TIMESTAMP, shift));
+        }
+
+        for (Pass pass : passes) {
+            if (pass(columns, pass.key(), pass.shift(), min, order, buffer, digits)) {
+                int[] swap = order;
+                order = buffer;
+                buffer = swap;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Moves the rows in order to the buffer, by one byte of a key, and returns false if the pass was skipped
+     */
+    private boolean pass(PlacementColumns columns, Key key, int shift, long min, int[] order, int[] buffer, byte[] digits) {
+        int size = order.length;
+        int parts = Math.min(threads, size);
+        int[][] counts = new int[parts][Radix];
+
+        IntStream.range(0, parts).parallel().forEach(part -> {
+            int from = (int) ((long) size * part / parts);
+            int to = (int) ((long) size * (part + 1) / parts);
+            gather(columns, key, shift, min, order, digits, from, to);
+            int[] partCounts = counts[part];
+            for (int i = from; i < to; i++) {
+                partCounts[digits[i] & 0xFF]++;
+            }
+        });
+
+        // Turn the counts into the position every part starts writing each digit at
+        int position = 0;
+        for (int digit = 0; digit < Radix; digit++) {
+            int total = 0;
+            for (int part = 0; part < parts; part++) {
+                total += counts[part][digit];
+            }
+            if (total == size) {
+                return false;
+            }
+            for (int part = 0; part < parts; part++) {
+                int count = counts[part][digit];
+                counts[part][digit] = position;
+                position += count;
+            }
+        }
+
+        IntStream.range(0, parts).parallel().forEach(part -> {
+            int from = (int) ((long) size * part / parts);
+            int to = (int) ((long) size * (part + 1) / parts);
+            int[] positions = counts[part];
+            for (int i = from; i < to; i++) {
+                buffer[positions[digits[i] & 0xFF]++] = order[i];
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Takes a byte of a key for the rows in a range, flipping the sign bits so signed values sort as unsigned
+     */
+    private static void gather(PlacementColumns columns, Key key, int shift, long min, int[] order, byte[] digits, int from, int to) {
+        switch (key) {
+            case COLOR -> {
+                for (int i = from; i < to; i++) {
+                    digits[i] = (byte) columns.color(order[i]);
+                }
+            }
+            case Y -> {
+                for (int i = from; i < to; i++) {
+                    digits[i] = (byte) ((columns.y(order[i]) ^ 0x8000) >>> shift);
+                }
+            }
+            case X -> {
+                for (int i = from; i < to; i++) {
+                    digits[i] = (byte) ((columns.x(order[i]) ^ 0x8000) >>> shift);
+                }
+            }
+            case USER -> {
+                for (int i = from; i < to; i++) {
+                    digits[i] = (byte) ((columns.user(order[i]) ^ Integer.MIN_VALUE) >>> shift);
+                }
+            }
+            case TIMESTAMP -> {
+                for (int i = from; i < to; i++) {
+                    digits[i] = (byte) ((columns.timestamp(order[i]) - min) >>> shift);
+                }
+            }
+        }
+    }
+
+}
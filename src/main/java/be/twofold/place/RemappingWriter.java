@@ -0,0 +1,109 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Renumbers users on the way to another writer. Placements come in sorted with the old user ids, so only the
+ * placements sharing a timestamp have to be sorted again to get the order for the new ids.
+ * <p>
+ * A group of placements sharing a timestamp is held in columns, and sorted as a permutation of its rows, so nothing
+ * is allocated per placement. Sorted groups go out in batches.
+ */
+final class RemappingWriter implements PlacementWriter {
+
+    private final PlacementWriter writer;
+    private final int[] remap;
+    private final PlacementBatch out = new PlacementBatch();
+    private final IntBinaryOperator comparator = this::compare;
+
+    // The group of placements sharing a timestamp
+    private long timestamp;
+    private int[] users = new int[64];
+    private short[] xs = new short[64];
+    private short[] ys = new short[64];
+    private byte[] colors = new byte[64];
+    private int[] order = new int[64];
+    private int[] buffer = new int[64];
+    private int size;
+
+    RemappingWriter(PlacementWriter writer, int[] remap) {
+        this.writer = Objects.requireNonNull(writer);
+        this.remap = Objects.requireNonNull(remap);
+    }
+
+    @Override
+    public void write(Placement placement) throws IOException {
+        add(placement.getTimestamp(), placement.getUser(), placement.getX(), placement.getY(), placement.getColor());
+    }
+
+    @Override
+    public void write(PlacementBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            add(batch.timestamp(i), batch.user(i), batch.x(i), batch.y(i), batch.color(i));
+        }
+    }
+
+    private void add(long timestamp, int user, int x, int y, int color) throws IOException {
+        if (size > 0 && this.timestamp != timestamp) {
+            flush();
+        }
+        if (size == users.length) {
+            grow();
+        }
+        this.timestamp = timestamp;
+        users[size] = remap[user];
+        xs[size] = (short) x;
+        ys[size] = (short) y;
+        colors[size] = (byte) color;
+        order[size] = size;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = users.length * 2;
+        users = Arrays.copyOf(users, capacity);
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+        order = Arrays.copyOf(order, capacity);
+        buffer = new int[capacity];
+    }
+
+    private void flush() throws IOException {
+        IntSorter.sort(order, 0, size, buffer, comparator);
+        for (int i = 0; i < size; i++) {
+            int row = order[i];
+            out.add(timestamp, users[row], xs[row], ys[row], Byte.toUnsignedInt(colors[row]));
+            if (out.isFull()) {
+                writer.write(out);
+                out.clear();
+            }
+        }
+        size = 0;
+    }
+
+    private int compare(int a, int b) {
+        int result = Integer.compare(users[a], users[b]);
+        if (result != 0) return result;
+        result = Short.compare(xs[a], xs[b]);
+        if (result != 0) return result;
+        result = Short.compare(ys[a], ys[b]);
+        if (result != 0) return result;
+        return Integer.compare(Byte.toUnsignedInt(colors[a]), Byte.toUnsignedInt(colors[b]));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (writer) {
+            flush();
+            if (!out.isEmpty()) {
+                writer.write(out);
+            }
+        }
+    }
+
+}
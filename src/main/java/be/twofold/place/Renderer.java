@@ -1,17 +1,12 @@
 package be.twofold.place;
 
-import be.twofold.place.model.*;
-
-import javax.imageio.*;
 import java.awt.*;
-import java.awt.image.*;
 import java.io.*;
 import java.nio.file.*;
 import java.time.*;
 import java.util.List;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.*;
 
 final class Renderer {
 
@@ -109,102 +104,204 @@ final class Renderer {
         new Color(0x51, 0x52, 0x52)
     );
 
-    private final Path placementsPath;
-    private final Path targetDirectory;
-    private final List<Color> colors;
+    private final PlacementReader reader;
+    private final Mods mods;
+    private final FrameWriter writer;
+    private final Year year;
+    private final Canvas canvas;
+    private final Mods.Cursor modCursor;
+    private final int threads;
 
     // Render variables
     private static final int FramePerMillis = 300 * 1000; // In milliseconds
-    private final ExecutorService pool;
-    private BufferedImage image;
-    private byte[] imageBuffer;
-    private int state = 0;
+    private final long frameMillis;
     private long cutoff;
 
-    Renderer(Path placementsPath, Path targetDirectory, Year year) {
-        this.placementsPath = Objects.requireNonNull(placementsPath);
-        this.targetDirectory = Objects.requireNonNull(targetDirectory);
-        this.colors = year.getValue() == 2017 ? Colors2017 : Colors2022;
-
-        int processors = Runtime.getRuntime().availableProcessors() / 2;
-        LinkedBlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>(processors * 2);
-        pool = new ThreadPoolExecutor(processors, processors, 1, TimeUnit.MINUTES, workQueue);
+    Renderer(PlacementReader reader, Mods mods, Path targetDirectory, Year year, Options options) throws IOException {
+        this.reader = Objects.requireNonNull(reader);
+        this.mods = Objects.requireNonNull(mods);
+        this.year = Objects.requireNonNull(year);
+        this.canvas = Canvas.forYear(year);
+        this.modCursor = mods.cursor(canvas, 0);
 
-        nextState();
+        FrameFormat format = FrameFormat.parse(options.getString("output", "png"));
+        this.frameMillis = options.getLong("frame-interval", FramePerMillis / 1000) * 1000;
+        if (frameMillis <= 0) {
+            throw new IllegalArgumentException("Frame interval must be positive");
+        }
+        this.threads = options.getInt("render-threads", 1);
+        if (threads < 1) {
+            throw new IllegalArgumentException("Render threads must be positive");
+        }
+        if (threads > 1 && format != FrameFormat.PNG) {
+            throw new IllegalArgumentException("Only png output can be rendered on multiple threads, the others are written in order");
+        }
+        this.writer = format.newWriter(targetDirectory, year, options);
     }
 
     void render() throws IOException {
-        try (Stream<String> lines = Files.lines(placementsPath)) {
-            lines
-                .map(Placement::parse)
-                .forEach(this::placePixel);
+        try (writer) {
+            if (threads == 1) {
+                reader.readBatches(this::placeBatch);
+            } else {
+                renderShards();
+            }
         }
+    }
 
-        try {
-            pool.awaitTermination(1, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+    private void placeBatch(PlacementBatch batch) {
+        Metrics.counter("replay.placements").add(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            placePixel(batch.timestamp(i), batch.x(i), batch.y(i), batch.color(i));
         }
     }
 
-    private void placePixel(Placement placement) {
+    private void placePixel(long timestamp, int x, int y, int color) {
         if (cutoff == 0) {
-            cutoff = (placement.getTimestamp() / FramePerMillis) * FramePerMillis;
+            cutoff = (timestamp / frameMillis) * frameMillis;
+        }
+
+        if (timestamp > cutoff) {
+            modCursor.apply(cutoff);
+            dumpImage(cutoff);
+            cutoff += frameMillis;
+        }
+
+        modCursor.apply(timestamp);
+        canvas.place(timestamp, x, y, color);
+    }
+
+    private void dumpImage(long cutoff) {
+        try {
+            writer.write(canvas.frame(cutoff));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        canvas.clearDirtyTiles();
+    }
 
-        if (placement.getTimestamp() > cutoff) {
-            dumpImage(image, cutoff);
-            cutoff += FramePerMillis;
+    /**
+     * Splits the frames in shards, and renders every shard on its own thread, starting from the canvas at its first
+     * frame. Gives the same frames as placing all pixels in order.
+     */
+    private void renderShards() throws IOException {
+        Timeline timeline = Timeline.read(reader, mods, frameMillis, year);
+        int frames = timeline.size();
+        int shards = Math.min(threads, frames);
+        if (shards == 0) {
+            return;
+        }
+        int[] firstFrames = new int[shards + 1];
+        for (int i = 0; i <= shards; i++) {
+            firstFrames[i] = (int) ((long) frames * i / shards);
         }
+        Shard[] starts = shardStarts(timeline, firstFrames);
+        System.out.println("Rendering " + frames + " frames in " + shards + " shards");
 
-        int x = placement.getX();
-        int y = placement.getY();
-        if (x > image.getWidth() || y > image.getHeight()) {
-            nextState();
+        ExecutorService executor = Executors.newFixedThreadPool(shards);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < shards; i++) {
+                Shard start = starts[i];
+                int from = firstFrames[i];
+                int to = firstFrames[i + 1];
+                futures.add(executor.submit(() -> renderShard(timeline, start, from, to)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            executor.shutdownNow();
         }
+    }
 
-        int index = y * image.getWidth() + x;
-        imageBuffer[index] = (byte) placement.getColor();
+    /**
+     * Replays the placements once, keeping a copy of the canvas at the first frame of every shard
+     */
+    private Shard[] shardStarts(Timeline timeline, int[] firstFrames) throws IOException {
+        int shards = firstFrames.length - 1;
+        Shard[] starts = new Shard[shards];
+        Canvas replay = Canvas.forYear(year);
+        Mods.Cursor replayMods = mods.cursor(replay, 0);
+        int[] next = {0};
+        long[] record = {0};
+        // Bounded by record, as after a gap the frames fall behind, and placements past their cutoff come before them
+        long until = timeline.record(firstFrames[shards - 1]);
+        reader.read(0, until, Long.MAX_VALUE, (timestamp, user, x, y, color) -> {
+            while (next[0] < shards && timeline.record(firstFrames[next[0]]) == record[0]) {
+                starts[next[0]++] = Shard.of(replay, record[0], replayMods.applied());
+            }
+            replayMods.apply(timestamp);
+            replay.place(timestamp, x, y, color);
+            record[0]++;
+        });
+        while (next[0] < shards) {
+            starts[next[0]++] = Shard.of(replay, record[0], replayMods.applied());
+        }
+        return starts;
     }
 
-    private void dumpImage(BufferedImage image, long cutoff) {
-        ColorModel colorModel = image.getColorModel();
-        WritableRaster writableRaster = image.copyData(null);
-        BufferedImage copy = new BufferedImage(colorModel, writableRaster, colorModel.isAlphaPremultiplied(), null);
-
-        String formattedDate = Instant.ofEpochMilli(cutoff).toString().replaceAll("[:-]", "");
-        System.out.println("Dumping image: " + state + "\\" + formattedDate);
-        File file = targetDirectory
-            .resolve("place_" + state + "_" + formattedDate + ".png")
-            .toFile();
-
-        while (true) {
-            try {
-                pool.submit(() -> ImageIO.write(copy, "png", file));
-                break;
-            } catch (RejectedExecutionException e) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ignored) {
+    private Void renderShard(Timeline timeline, Shard start, int from, int to) throws IOException {
+        Canvas shardCanvas = Canvas.forYear(year);
+        shardCanvas.restore(start.state, start.pixels);
+        Mods.Cursor shardMods = mods.cursor(shardCanvas, start.mods);
+
+        int[] next = {from};
+        long[] record = {start.record};
+        reader.readBatches(start.record, timeline.record(to - 1), Long.MAX_VALUE, batch -> {
+            Metrics.counter("replay.placements").add(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                if (next[0] < to && timeline.record(next[0]) == record[0]) {
+                    shardMods.apply(timeline.cutoff(next[0]));
+                    write(shardCanvas.frame(timeline.cutoff(next[0]++)));
                 }
+                long timestamp = batch.timestamp(i);
+                shardMods.apply(timestamp);
+                shardCanvas.place(timestamp, batch.x(i), batch.y(i), batch.color(i));
+                record[0]++;
             }
+        });
+        while (next[0] < to) {
+            shardMods.apply(timeline.cutoff(next[0]));
+            write(shardCanvas.frame(timeline.cutoff(next[0]++)));
         }
+        return null;
     }
 
-    private void nextState() {
-        state++;
+    private void write(Frame frame) {
+        try {
+            writer.write(frame);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        int width = state > 1 ? 2000 : 1000;
-        int height = state > 2 ? 2000 : 1000;
-        int paletteSize = (state + 1) * 8;
+    private static final class Shard {
+        private final int state;
+        private final byte[] pixels;
+        private final long record;
+        private final int mods;
 
-        BufferedImage oldImage = image;
-        IndexColorModel colorModel = Utils.fromColors(colors.subList(0, paletteSize));
-        image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
-        imageBuffer = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        private Shard(int state, byte[] pixels, long record, int mods) {
+            this.state = state;
+            this.pixels = pixels;
+            this.record = record;
+            this.mods = mods;
+        }
 
-        if (oldImage != null) {
-            image.getGraphics().drawImage(oldImage, 0, 0, null);
+        private static Shard of(Canvas canvas, long record, int mods) {
+            return new Shard(canvas.state(), canvas.pixels().clone(), record, mods);
         }
     }
 
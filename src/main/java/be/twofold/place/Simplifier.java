@@ -2,74 +2,124 @@ package be.twofold.place;
 
 import be.twofold.place.model.*;
 
-import java.awt.*;
 import java.io.*;
+import java.nio.charset.*;
 import java.nio.file.*;
 import java.time.*;
 import java.util.List;
 import java.util.*;
-import java.util.concurrent.atomic.*;
 import java.util.function.*;
 import java.util.stream.*;
 
 final class Simplifier {
-    private static final Map<String, Integer> ColorIndex2022 = createColorIndex(Renderer.Colors2022);
-    private static final Map<String, Integer> ColorIndex2023 = createColorIndex(Renderer.Colors2023);
+    private static final byte Comma = ',';
     private static final Base64.Encoder encoder = Base64.getEncoder();
-    private static final Base64.Decoder decoder = Base64.getDecoder();
+    // The longest user hash of any year, the 2022 and 2023 hashes are 64 bytes
+    static final int MaxUserBytes = 64;
+    // The sources the placements were merged from, when they are cached
+    private static final String SourcesFile = "sources.txt";
 
     private final List<Path> sourceFiles;
     private final Path usersPath;
     private final Path placementsPath;
     private final Path modsPath;
-
-    private final Function<String, Placement> placementParser;
-    private final List<String> mods = new ArrayList<>();
-    private Map<ByteArray, Integer> users;
-
-    Simplifier(List<Path> sourceFiles, Path targetDirectory, Year year) {
-        Objects.requireNonNull(targetDirectory);
+    private final Path snapshotsPath;
+    private final Path tilesPath;
+    private final Path targetDirectory;
+    private final Options options;
+    private final PlacementFormat format;
+    private final Year year;
+    private final String sort;
+    private final long sortMemory;
+    private final int reorderWindow;
+    private final long snapshotInterval;
+    private final boolean tileIndex;
+    private final boolean pixelIndex;
+    private final boolean userIndex;
+    private final Path cacheDirectory;
+
+    private final List<Mod> mods = Collections.synchronizedList(new ArrayList<>());
+    private final boolean singlePass;
+    private final boolean sortUsers;
+    private PlacementParser placementParser;
+    private ConcurrentUserDictionary interner;
+
+    Simplifier(List<Path> sourceFiles, Path targetDirectory, Year year, Options options) {
+        this.targetDirectory = Objects.requireNonNull(targetDirectory);
+        this.options = Objects.requireNonNull(options);
         this.sourceFiles = List.copyOf(sourceFiles);
+        this.format = PlacementFormat.parse(options.getString("format", "binary"));
+        this.year = Objects.requireNonNull(year);
+        this.sort = options.getString("sort", "memory");
+        this.sortMemory = options.getLong("sort-memory", 1024) * 1024 * 1024;
+        this.reorderWindow = options.getInt("reorder-window", 100_000);
+        this.snapshotInterval = options.getLong("snapshot-interval", 60) * 60 * 1000;
+        this.tileIndex = options.getBoolean("tile-index");
+        this.pixelIndex = options.getBoolean("pixel-index");
+        this.userIndex = options.getBoolean("user-index");
+        this.cacheDirectory = options.getBoolean("incremental")
+            ? Path.of(options.getString("cache-directory", targetDirectory.resolve("cache").toString()))
+            : null;
+        if (!List.of("memory", "external", "streaming").contains(sort)) {
+            throw new IllegalArgumentException("Unknown sort: " + sort);
+        }
+        this.singlePass = options.getBoolean("single-pass");
+        this.sortUsers = "sorted".equals(options.getString("user-order", "sorted"));
+        if (singlePass && sortUsers && "streaming".equals(sort)) {
+            throw new IllegalArgumentException("Sorted user ids need --sort=memory or --sort=external in a single pass");
+        }
 
-        this.usersPath = targetDirectory.resolve("users.txt");
-        this.placementsPath = targetDirectory.resolve("placements.txt");
-        this.modsPath = targetDirectory.resolve("mods.txt");
-
-        this.placementParser = switch (year.getValue()) {
-            case 2017 -> this::parsePlacement2017;
-            case 2022 -> this::parsePlacement2022;
-            case 2023 -> this::parsePlacement2023;
-            default -> throw new IllegalArgumentException("Year must be 2017, 2022 or 2023");
-        };
-    }
-
-    private static Map<String, Integer> createColorIndex(List<Color> colorList) {
-        List<String> colors = colorList.stream()
-            .map(color -> String.format("#%02X%02X%02X", color.getRed(), color.getGreen(), color.getBlue()))
-            .collect(Collectors.toList());
-
-        return toMap(colors);
+        this.usersPath = targetDirectory.resolve(UsersFile.FileName);
+        this.placementsPath = format.resolve(targetDirectory);
+        this.modsPath = targetDirectory.resolve(Mods.FileName);
+        this.snapshotsPath = targetDirectory.resolve(SnapshotIndex.FileName);
+        this.tilesPath = targetDirectory.resolve(TileIndex.FileName);
     }
 
     void simplify() {
         System.out.println("Simplifying...");
 
-        FileProcessor processor = new FileProcessor(sourceFiles);
+        FileProcessor processor = new FileProcessor(sourceFiles, options);
+
+        if (cacheDirectory != null) {
+            mergeCached(processor);
+        }
+
+        if (singlePass && !Files.exists(usersPath) && !Files.exists(placementsPath)) {
+            // Users get their id while the placements are parsed, and are dumped when writing placements
+            System.out.println("Dumping users and sorted placements in a single pass");
+            interner = new ConcurrentUserDictionary(MaxUserBytes);
+            placementParser = new SourceParser(year, interner::intern, mods::add);
+            if ("streaming".equals(sort)) {
+                dumpPlacementsStreaming();
+                dumpInternedUsers(false);
+            } else {
+                dumpPlacements(processor);
+                // Sorted users are dumped by the placement writer, first-seen ones keep their ids
+                if (!sortUsers) {
+                    dumpInternedUsers(false);
+                }
+            }
+        }
 
         // Dump all the users in a separate file
         if (!Files.exists(usersPath)) {
             System.out.println("Dumping users");
-            processor.process(this::dumpUsers);
+            dumpUsers(processor);
         }
 
         if (!Files.exists(placementsPath)) {
             // Read all the users back in
             System.out.println("Reading users back in");
-            users = readUsers();
+            placementParser = new SourceParser(year, readUsers()::get, mods::add);
 
             // Dump all sorted placements
             System.out.println("Dumping sorted placements");
-            processor.process(this::dumpPlacements);
+            if ("streaming".equals(sort)) {
+                dumpPlacementsStreaming();
+            } else {
+                dumpPlacements(processor);
+            }
         }
 
         // Dump all mods if they don't exist
@@ -78,146 +128,282 @@ final class Simplifier {
             dumpMods(modsPath);
         }
 
+        // Placements from before the indices, or written without them
+        if (snapshotInterval > 0 && !Files.exists(snapshotsPath)) {
+            System.out.println("Indexing snapshots");
+            index(this::newSnapshotWriter);
+        }
+        if (tileIndex && !Files.exists(tilesPath)) {
+            System.out.println("Indexing tiles");
+            index(this::newTileWriter);
+        }
+        if (pixelIndex && !Files.exists(targetDirectory.resolve(GroupedIndex.Key.PIXEL.fileName()))) {
+            System.out.println("Indexing pixels");
+            group(GroupedIndex.Key.PIXEL);
+        }
+        if (userIndex && !Files.exists(targetDirectory.resolve(GroupedIndex.Key.USER.fileName()))) {
+            System.out.println("Indexing users");
+            group(GroupedIndex.Key.USER);
+        }
+
         System.out.println("Simplifying done");
     }
 
-    private void dumpUsers(Stream<String> stream) {
-        List<ByteArray> users = stream
-            .map(this::parseUserId)
-            .distinct().sorted()
-            .collect(Collectors.toList());
+    /**
+     * Parses the source files that aren't cached yet, and merges all of them into users, placements and mods. Only
+     * merges when the sources changed since the last merge, which is tracked in {@link #SourcesFile}.
+     */
+    private void mergeCached(FileProcessor processor) {
+        try {
+            SourceCache cache = new SourceCache(cacheDirectory, year);
+            cache.update(sourceFiles, processor);
+
+            Path sourcesPath = targetDirectory.resolve(SourcesFile);
+            List<String> sources = new ArrayList<>();
+            for (Path sourceFile : sourceFiles) {
+                sources.add(cache.key(sourceFile));
+            }
+            if (Files.exists(sourcesPath) && Files.readAllLines(sourcesPath).equals(sources)
+                && Files.exists(usersPath) && Files.exists(placementsPath) && Files.exists(modsPath)) {
+                System.out.println("Placements are up to date with the sources");
+                return;
+            }
+
+            // Everything that was simplified from other sources goes, down to the indices
+            Files.deleteIfExists(sourcesPath);
+            for (Path path : List.of(usersPath, placementsPath, modsPath, snapshotsPath, tilesPath,
+                targetDirectory.resolve(GroupedIndex.Key.PIXEL.fileName()),
+                targetDirectory.resolve(GroupedIndex.Key.USER.fileName()))) {
+                Files.deleteIfExists(path);
+            }
+
+            System.out.println("Merging users");
+            List<int[]> users = cache.mergeUsers(sourceFiles, usersPath);
+            mods.addAll(cache.mods(sourceFiles));
+            System.out.println("Dumping mods");
+            dumpMods(modsPath);
+
+            System.out.println("Merging placements");
+            try (PlacementWriter writer = newPlacementWriter()) {
+                cache.mergePlacements(sourceFiles, users, writer);
+            }
+            Files.write(sourcesPath, sources);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void dumpUsers(FileProcessor processor) {
+        ConcurrentUserDictionary dictionary = new ConcurrentUserDictionary(MaxUserBytes);
+        processor.process(() -> (buffer, start, end) -> {
+            int i1 = Bytes.indexOf(buffer, start, end, Comma);
+            dictionary.intern(buffer, i1 + 1, Bytes.indexOf(buffer, i1 + 1, end, Comma));
+        });
 
         System.out.println("Dumping to file...");
-        writeAll(usersPath, users, u -> encoder.encodeToString(u.array()));
+        interner = dictionary;
+        dumpInternedUsers(true);
+        interner = null;
     }
 
-    private Map<ByteArray, Integer> readUsers() {
+    private UserDictionary readUsers() {
+        IntSummaryStatistics statistics;
         try (Stream<String> lines = Files.lines(usersPath)) {
-            List<ByteArray> users = lines
-                .map(s -> new ByteArray(decoder.decode(s)))
-                .collect(Collectors.toList());
+            statistics = lines
+                .map(s -> s.getBytes(StandardCharsets.ISO_8859_1))
+                .mapToInt(bytes -> UserDictionary.decodedLength(bytes, 0, bytes.length))
+                .summaryStatistics();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
-            return toMap(users);
+        UserDictionary dictionary = new UserDictionary(Math.max(statistics.getMax(), 0), (int) statistics.getCount());
+        try (Stream<String> lines = Files.lines(usersPath)) {
+            lines.forEachOrdered(s -> {
+                byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+                dictionary.add(bytes, 0, bytes.length);
+            });
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        return dictionary;
     }
 
-    private void dumpPlacements(Stream<String> stream) {
-        List<Placement> placements = stream
-            .map(placementParser)
-            .filter(Objects::nonNull)
-            .sorted()
-            .collect(Collectors.toList());
+    private void dumpPlacements(FileProcessor processor) {
+        if ("external".equals(sort)) {
+            dumpPlacementsExternal(processor);
+            return;
+        }
 
-        writeAll(placementsPath, placements, Objects::toString);
-    }
+        PlacementColumns columns = new PlacementColumns();
+        parsePlacements(processor, placementParser, columns::addAll);
 
-    private void dumpMods(Path modsPath) {
-        writeAll(modsPath, mods, Objects::toString);
+        int[] order = new RadixSorter(Runtime.getRuntime().availableProcessors()).sort(columns);
+        try (PlacementWriter writer = newPlacementWriter()) {
+            Metrics.Span span = Metrics.start("write");
+            columns.forEachBatch(order, new PlacementBatch(), writer::write);
+            span.end(order.length, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
+    private void dumpPlacementsExternal(FileProcessor processor) {
+        try (ExternalSorter sorter = new ExternalSorter(targetDirectory, sortMemory)) {
+            parsePlacements(processor, placementParser, sorter::addAll);
 
-    private ByteArray parseUserId(String s) {
-        int start = s.indexOf(',') + 1;
-        int end = s.indexOf(',', start);
-        String base64 = s.substring(start, end);
-        return new ByteArray(decoder.decode(base64));
+            try (PlacementWriter writer = newPlacementWriter()) {
+                sorter.writeTo(writer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private Placement parsePlacement2017(String s) {
-        int i1 = s.indexOf(',');
-        int i2 = s.indexOf(',', i1 + 1);
-        int i3 = s.indexOf(',', i2 + 1);
-        int i4 = s.indexOf(',', i3 + 1);
+    /**
+     * Parses all placements, and hands them to the sink in batches. The sink is called from many threads, and
+     * can't hold on to the batch.
+     */
+    static void parsePlacements(FileProcessor processor, PlacementParser parser, Consumer<PlacementBatch> sink) {
+        processor.process(() -> new FileProcessor.LineHandler() {
+            private final PlacementBatch batch = new PlacementBatch();
+
+            @Override
+            public void line(byte[] buffer, int start, int end) {
+                if (batch.isFull()) {
+                    flush();
+                }
+                parser.parse(buffer, start, end, batch);
+            }
+
+            @Override
+            public void flush() {
+                if (!batch.isEmpty()) {
+                    sink.accept(batch);
+                    batch.clear();
+                }
+            }
+        });
+    }
 
-        // Skip invalid lines
-        if (i4 == i3 + 1 || i3 == i2 + 1) {
-            return null;
+    private void dumpPlacementsStreaming() {
+        StreamingMerger merger = new StreamingMerger(sourceFiles, placementParser, reorderWindow);
+        try (PlacementWriter writer = newPlacementWriter()) {
+            merger.writeTo(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        // Take out invalid coordinates
-        short x = (short) Integer.parseInt(s, i2 + 1, i3, 10);
-        short y = (short) Integer.parseInt(s, i3 + 1, i4, 10);
-        if (x > 999 || y > 999) {
-            return null;
+    /**
+     * Reads the placements back in, and passes them through an index writer a batch at a time
+     */
+    private void index(IndexWriterFactory factory) {
+        PlacementReader reader = format.newReader(placementsPath);
+        try (PlacementWriter writer = factory.wrap(new PlacementWriter() {
+            @Override
+            public void write(Placement placement) {
+            }
+
+            @Override
+            public void write(PlacementBatch batch) {
+            }
+
+            @Override
+            public void close() {
+            }
+        })) {
+            reader.readBatches(batch -> {
+                try {
+                    writer.write(batch);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-
-        long ts = parseDate(s.substring(0, i1));
-        int user = users.get(new ByteArray(decoder.decode(s.substring(i1 + 1, i2))));
-        int color = Integer.parseInt(s, i4 + 1, s.length(), 10);
-        return new Placement(ts, user, x, y, color);
     }
 
-    private Placement parsePlacement2022(String s) {
-        int i1 = s.indexOf(',');
-        int i2 = s.indexOf(',', i1 + 1);
-        int i3 = s.indexOf(',', i2 + 1);
-        int i4 = s.indexOf(',', i3 + 1);
-
-        // Mod lines have more than 4 commas
-        if (s.indexOf(',', i4 + 1) != -1) {
-            mods.add(s);
-            return null;
+    /**
+     * Groups the placements by pixel or user, which needs them all, so it's done once they are written
+     */
+    private void group(GroupedIndex.Key key) {
+        CanvasLayout.Phase bounds = CanvasLayout.forYear(year).bounds();
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            int users = key == GroupedIndex.Key.USER ? UsersFile.count(usersPath) : 0;
+            new GroupedIndexBuilder(format.newReader(placementsPath), targetDirectory, key, bounds, users, threads).build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        long ts = parseDate(s.substring(0, i1));
-        int user = users.get(new ByteArray(decoder.decode(s.substring(i1 + 1, i2))));
-        short x = (short) Integer.parseInt(s, i3 + 2, i4, 10);
-        short y = (short) Integer.parseInt(s, i4 + 1, s.length() - 1, 10);
-        int color = ColorIndex2022.get(s.substring(i2 + 1, i3));
-        return new Placement(ts, user, x, y, color);
+    private PlacementWriter newSnapshotWriter(PlacementWriter writer) throws IOException {
+        // The mods were parsed along with the placements, or dumped by an earlier run
+        Mods snapshotMods = mods.isEmpty() ? Mods.read(targetDirectory) : Mods.of(mods);
+        return new SnapshotIndexWriter(writer, snapshotsPath, Canvas.forYear(year), snapshotMods, snapshotInterval);
     }
 
-    private Placement parsePlacement2023(String s) {
-        int i1 = s.indexOf(',');
-        int i2 = s.indexOf(',', i1 + 1);
-        int i3 = s.indexOf(',', i2 + 1);
-        int i4 = s.indexOf(',', i3 + 1);
+    private PlacementWriter newTileWriter(PlacementWriter writer) throws IOException {
+        return new TileIndexWriter(writer, tilesPath, year);
+    }
 
-        // Mod lines have more than 4 commas
-        if (s.indexOf(',', i4 + 1) != -1) {
-            mods.add(s);
-            return null;
+    /**
+     * Opens the placements writer. When users were interned, they are renumbered in sorted order first, unless
+     * the placements are still being parsed. The indices are written along with the placements, except for the
+     * snapshots of a streaming merge, which only knows all mods once it's done.
+     */
+    private PlacementWriter newPlacementWriter() throws IOException {
+        PlacementWriter writer = format.newWriter(placementsPath, year);
+        if (snapshotInterval > 0 && !"streaming".equals(sort)) {
+            writer = newSnapshotWriter(writer);
         }
-
-        long ts = parseDate(s.substring(0, i1));
-        int user = users.get(new ByteArray(decoder.decode(s.substring(i1 + 1, i2))));
-        short x = (short) Integer.parseInt(s, i2 + 2, i3, 10);
-        short y = (short) Integer.parseInt(s, i3 + 1, i4 - 1, 10);
-        int color = ColorIndex2023.get(s.substring(i4 + 1));
-        return new Placement(ts, user, x, y, color);
+        if (tileIndex) {
+            writer = newTileWriter(writer);
+        }
+        if (interner == null || !sortUsers) {
+            return writer;
+        }
+        return new RemappingWriter(writer, dumpInternedUsers(true));
     }
 
-    private long parseDate(String s) {
-        int year = Integer.parseInt(s, 0, 4, 10);
-        int month = Integer.parseInt(s, 5, 7, 10);
-        int dayOfMonth = Integer.parseInt(s, 8, 10, 10);
-        int hour = Integer.parseInt(s, 11, 13, 10);
-        int minute = Integer.parseInt(s, 14, 16, 10);
-        int seconds = Integer.parseInt(s, 17, 19, 10);
-        int nanoOfSecond = parseNanoOfSecond(s);
+    /**
+     * Writes the interned users, and returns the new id for every interned id
+     */
+    private int[] dumpInternedUsers(boolean sorted) {
+        System.out.println("Dumping " + interner.size() + " users");
+        int[] ids;
+        if (sorted) {
+            ids = interner.sortedIds();
+        } else {
+            interner.freeze();
+            ids = IntStream.rangeClosed(1, interner.size()).toArray();
+        }
 
-        return LocalDateTime
-            .of(year, month, dayOfMonth, hour, minute, seconds, nanoOfSecond)
-            .toInstant(ZoneOffset.UTC)
-            .toEpochMilli();
+        int[] remap = new int[ids.length + 1];
+        try (BufferedWriter writer = Files.newBufferedWriter(usersPath)) {
+            for (int i = 0; i < ids.length; i++) {
+                remap[ids[i]] = i + 1;
+                writer.write(encoder.encodeToString(interner.key(ids[i])));
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return remap;
     }
 
-    private int parseNanoOfSecond(String s) {
-        if (s.charAt(19) != '.') {
-            return 0;
+    private void dumpMods(Path modsPath) {
+        List<Mod> sorted;
+        synchronized (mods) {
+            sorted = new ArrayList<>(mods);
         }
-        int end = s.indexOf(' ', 20);
-        int fraction = Integer.parseInt(s, 20, end, 10);
-        return switch (end - 20) {
-            case 1 -> fraction * 100_000_000;
-            case 2 -> fraction * 10_000_000;
-            case 3 -> fraction * 1_000_000;
-            default -> throw new IllegalArgumentException();
-        };
+        Collections.sort(sorted);
+        writeAll(modsPath, sorted, Mod::toString);
     }
 
+
     private <T> void writeAll(Path outputPath, Collection<T> collection, Function<? super T, String> mapper) {
         try (BufferedWriter writer = Files.newBufferedWriter(outputPath)) {
             collection.stream()
@@ -235,12 +421,7 @@ final class Simplifier {
         }
     }
 
-    private static <T> Map<T, Integer> toMap(Collection<T> collection) {
-        AtomicInteger counter = new AtomicInteger();
-        return collection.stream()
-            .collect(Collectors.toUnmodifiableMap(
-                Function.identity(),
-                __ -> counter.incrementAndGet()
-            ));
+    private interface IndexWriterFactory {
+        PlacementWriter wrap(PlacementWriter writer) throws IOException;
     }
 }
@@ -0,0 +1,144 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.zip.*;
+
+/**
+ * Snapshots of the canvas at a fixed interval, with the number of placements that went into each of them. Restoring
+ * the snapshot before a timestamp and replaying the placements after it gives the canvas at any time.
+ * <p>
+ * The file starts with a header: magic, version, interval, snapshot count and the position of the table. The snapshots
+ * follow, each with its state, the width and height of the final canvas, and the length of its deflated pixels. The
+ * table at the end holds the cutoff, the record to continue from and the position of the snapshot for every interval.
+ * Intervals without placements share a snapshot. All numbers are little endian.
+ */
+final class SnapshotIndex implements Closeable {
+
+    static final String FileName = "snapshots.bin";
+    static final int Magic = 0x49534C50; // "PLSI"
+    static final int Version = 2;
+    static final int HeaderSize = 32;
+    static final int SnapshotHeaderSize = 16;
+    static final int EntrySize = 24;
+
+    private final FileChannel channel;
+    private final long interval;
+    private final long[] cutoffs;
+    private final long[] records;
+    private final long[] positions;
+
+    SnapshotIndex(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(0, HeaderSize);
+            if (header.getInt() != Magic || header.getInt() != Version) {
+                throw new IOException("Not a snapshot index of version " + Version + ": " + path);
+            }
+            interval = header.getLong();
+            int count = header.getInt();
+            long tablePosition = header.getLong();
+
+            ByteBuffer table = read(tablePosition, count * EntrySize);
+            cutoffs = new long[count];
+            records = new long[count];
+            positions = new long[count];
+            for (int i = 0; i < count; i++) {
+                cutoffs[i] = table.getLong();
+                records[i] = table.getLong();
+                positions[i] = table.getLong();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    long interval() {
+        return interval;
+    }
+
+    int size() {
+        return cutoffs.length;
+    }
+
+    long cutoff(int snapshot) {
+        return cutoffs[snapshot];
+    }
+
+    /**
+     * Returns the number of placements that are in a snapshot, which is also the first record after it
+     */
+    long record(int snapshot) {
+        return records[snapshot];
+    }
+
+    /**
+     * Returns the last snapshot with a cutoff at or before the timestamp, or {@code -1} if there is none
+     */
+    int find(long timestamp) {
+        int low = 0;
+        int high = cutoffs.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (cutoffs[mid] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Restores a snapshot into a fresh canvas of the same year
+     */
+    void restore(int snapshot, Canvas canvas) throws IOException {
+        ByteBuffer header = read(positions[snapshot], SnapshotHeaderSize);
+        int state = header.getInt();
+        int width = header.getInt();
+        int height = header.getInt();
+        int length = header.getInt();
+        ByteBuffer data = read(positions[snapshot] + SnapshotHeaderSize, length);
+
+        byte[] pixels = new byte[Math.multiplyExact(width, height)];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data.array(), 0, length);
+            int total = 0;
+            while (total < pixels.length && !inflater.finished()) {
+                int n = inflater.inflate(pixels, total, pixels.length - total);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                total += n;
+            }
+            if (total != pixels.length) {
+                throw new IOException("Expected " + pixels.length + " pixels in snapshot " + snapshot + ", but got " + total);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt snapshot " + snapshot, e);
+        } finally {
+            inflater.end();
+        }
+        canvas.restore(state, pixels);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of the snapshot index");
+            }
+        }
+        return buffer.flip();
+    }
+
+}
@@ -0,0 +1,145 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Builds the snapshot index while placements are written, by keeping a canvas up to date alongside the placements
+ * and mods, and checkpointing it every interval. See {@link SnapshotIndex} for the layout.
+ */
+final class SnapshotIndexWriter implements PlacementWriter {
+
+    private final PlacementWriter delegate;
+    private final FileChannel channel;
+    private final Canvas canvas;
+    private final Mods.Cursor mods;
+    private final long interval;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteArrayOutputStream table = new ByteArrayOutputStream();
+
+    private byte[] compressed = new byte[1 << 16];
+    private long next = Long.MIN_VALUE;
+    private long records;
+    private long position = SnapshotIndex.HeaderSize;
+    private long lastRecords = -1;
+    private int lastMods;
+    private long lastPosition;
+    private int count;
+
+    SnapshotIndexWriter(PlacementWriter delegate, Path path, Canvas canvas, Mods mods, long interval) throws IOException {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Snapshot interval must be positive");
+        }
+        this.delegate = Objects.requireNonNull(delegate);
+        this.canvas = Objects.requireNonNull(canvas);
+        this.mods = mods.cursor(canvas, 0);
+        this.interval = interval;
+        this.channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.channel.position(SnapshotIndex.HeaderSize);
+    }
+
+    @Override
+    public void write(Placement placement) throws IOException {
+        place(placement.getTimestamp(), placement.getX(), placement.getY(), placement.getColor());
+        delegate.write(placement);
+    }
+
+    @Override
+    public void write(PlacementBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            place(batch.timestamp(i), batch.x(i), batch.y(i), batch.color(i));
+        }
+        delegate.write(batch);
+    }
+
+    private void place(long timestamp, int x, int y, int color) throws IOException {
+        if (next == Long.MIN_VALUE) {
+            next = timestamp / interval * interval;
+        }
+        while (timestamp > next) {
+            mods.apply(next);
+            checkpoint(next);
+            next += interval;
+        }
+
+        mods.apply(timestamp);
+        canvas.place(timestamp, x, y, color);
+        records++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            delegate.close();
+
+            long tablePosition = position;
+            writeFully(ByteBuffer.wrap(table.toByteArray()));
+
+            ByteBuffer header = ByteBuffer.allocate(SnapshotIndex.HeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(SnapshotIndex.Magic);
+            header.putInt(SnapshotIndex.Version);
+            header.putLong(interval);
+            header.putInt(count);
+            header.putLong(tablePosition);
+            channel.position(0);
+            writeFully(header.position(SnapshotIndex.HeaderSize).flip());
+        } finally {
+            deflater.end();
+        }
+        System.out.println("Wrote " + count + " snapshots");
+    }
+
+    private void checkpoint(long cutoff) throws IOException {
+        // Nothing was placed or modded since the last snapshot, so point to that one again
+        if (records != lastRecords || mods.applied() != lastMods) {
+            lastPosition = position;
+            lastRecords = records;
+            lastMods = mods.applied();
+            position += writeSnapshot();
+        }
+
+        ByteBuffer entry = ByteBuffer.allocate(SnapshotIndex.EntrySize).order(ByteOrder.LITTLE_ENDIAN);
+        entry.putLong(cutoff);
+        entry.putLong(records);
+        entry.putLong(lastPosition);
+        table.write(entry.array(), 0, SnapshotIndex.EntrySize);
+        count++;
+    }
+
+    private int writeSnapshot() throws IOException {
+        byte[] pixels = canvas.pixels();
+        deflater.reset();
+        deflater.setInput(pixels);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(SnapshotIndex.SnapshotHeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(canvas.state());
+        header.putInt(canvas.layout().bounds().width());
+        header.putInt(canvas.layout().bounds().height());
+        header.putInt(length);
+        writeFully(header.flip());
+        writeFully(ByteBuffer.wrap(compressed, 0, length));
+        return SnapshotIndex.SnapshotHeaderSize + length;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+}
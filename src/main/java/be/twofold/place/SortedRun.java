@@ -0,0 +1,175 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A file holding sorted placements in a compact encoding. Timestamps are stored as the difference with the
+ * previous record, and all fields as variable length integers, which takes about 8 bytes per placement.
+ */
+final class SortedRun {
+
+    private static final int BufferSize = 1 << 16;
+
+    private SortedRun() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Writes the rows of the columns in the given order
+     */
+    static void write(Path path, PlacementColumns columns, int[] order) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), BufferSize)) {
+            long previous = 0;
+            for (int row : order) {
+                writeVarLong(out, columns.timestamp(row) - previous);
+                writeVarLong(out, Integer.toUnsignedLong(columns.user(row)));
+                writeVarLong(out, zigZag(columns.x(row)));
+                writeVarLong(out, zigZag(columns.y(row)));
+                out.write(columns.color(row));
+                previous = columns.timestamp(row);
+            }
+        }
+    }
+
+    /**
+     * Merges runs in a single pass, and writes them in order to the writer, a batch at a time. The users of a run
+     * can be mapped to other ids, which must keep their order, or be null to keep the ids.
+     */
+    static void merge(List<Path> runs, List<int[]> users, PlacementWriter writer) throws IOException {
+        List<Reader> readers = new ArrayList<>();
+        try {
+            PriorityQueue<Reader> queue = new PriorityQueue<>();
+            for (int i = 0; i < runs.size(); i++) {
+                Reader reader = new Reader(runs.get(i), users != null ? users.get(i) : null);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+
+            System.out.println("Merging " + readers.size() + " runs");
+            Metrics.Span span = Metrics.start("merge");
+            PlacementBatch batch = new PlacementBatch();
+            long merged = 0;
+            while (!queue.isEmpty()) {
+                Reader reader = queue.poll();
+                batch.add(reader.timestamp, reader.user, reader.x, reader.y, reader.color);
+                if (batch.isFull()) {
+                    writer.write(batch);
+                    merged += batch.size();
+                    batch.clear();
+                }
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            if (!batch.isEmpty()) {
+                writer.write(batch);
+                merged += batch.size();
+            }
+            span.end(merged, 0);
+        } finally {
+            for (Reader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigZag(int value) {
+        return Integer.toUnsignedLong((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Reads a run a record at a time into its fields, which hold the current record until the next one is read.
+     * Readers order by their current record, like placements.
+     */
+    static final class Reader implements Closeable, Comparable<Reader> {
+        private final InputStream in;
+        private final int[] users;
+        private long timestamp;
+        private int user;
+        private short x;
+        private short y;
+        private int color;
+
+        Reader(Path path, int[] users) throws IOException {
+            this.in = new BufferedInputStream(Files.newInputStream(path), BufferSize);
+            this.users = users;
+        }
+
+        /**
+         * Reads the next record, and returns {@code false} when the run is exhausted
+         */
+        boolean next() throws IOException {
+            int first = in.read();
+            if (first < 0) {
+                return false;
+            }
+            long timestamp = this.timestamp + readVarLong(first);
+            int user = (int) readVarLong(in.read());
+            if (users != null) {
+                user = users[user];
+            }
+            short x = (short) unZigZag(readVarLong(in.read()));
+            short y = (short) unZigZag(readVarLong(in.read()));
+            int color = in.read();
+            if (color < 0) {
+                throw new EOFException("Truncated run");
+            }
+            this.timestamp = timestamp;
+            this.user = user;
+            this.x = x;
+            this.y = y;
+            this.color = color;
+            return true;
+        }
+
+        private long readVarLong(int b) throws IOException {
+            long result = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (b < 0) {
+                    throw new EOFException("Truncated run");
+                }
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                b = in.read();
+            }
+        }
+
+        private static int unZigZag(long value) {
+            int i = (int) value;
+            return (i >>> 1) ^ -(i & 1);
+        }
+
+        @Override
+        public int compareTo(Reader o) {
+            int result = Long.compare(timestamp, o.timestamp);
+            if (result != 0) return result;
+            result = Integer.compare(user, o.user);
+            if (result != 0) return result;
+            result = Short.compare(x, o.x);
+            if (result != 0) return result;
+            result = Short.compare(y, o.y);
+            if (result != 0) return result;
+            return Integer.compare(color, o.color);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Keeps what every source file parses into, so simplifying again after adding or changing a few files only parses
+ * those files.
+ * <p>
+ * Every source file gets a directory in the cache, with its placements as a {@link SortedRun}, its users in the
+ * order of users.txt, and its mods. The users of a run are numbered within the file. A file is parsed again when
+ * its size or modification time changed. Directories are built under a temporary name and moved in place when
+ * done, so an interrupted simplify only loses the files that were being parsed.
+ * <p>
+ * Merging the users of all files gives users.txt, and maps the users of every file to their id in it. The users
+ * of a file keep their order when mapped, so the runs stay sorted, and are merged straight into the placements.
+ */
+final class SourceCache {
+
+    private static final int Version = 1;
+    private static final String InfoFile = "source.properties";
+    private static final String UsersFile = "users.txt";
+    private static final String RunFile = "placements.run";
+    private static final String TempPrefix = "building-";
+    private static final byte Comma = ',';
+    private static final Base64.Encoder Encoder = Base64.getEncoder();
+    private static final Base64.Decoder Decoder = Base64.getDecoder();
+
+    private final Path directory;
+    private final Year year;
+
+    SourceCache(Path directory, Year year) {
+        this.directory = Objects.requireNonNull(directory);
+        this.year = Objects.requireNonNull(year);
+    }
+
+    /**
+     * Parses the source files that aren't cached, or changed since, as many at a time as there are decompressors
+     */
+    void update(List<Path> sourceFiles, FileProcessor processor) throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> unfinished = Files.newDirectoryStream(directory, TempPrefix + "*")) {
+            for (Path path : unfinished) {
+                deleteDirectory(path);
+            }
+        }
+
+        List<Path> stale = new ArrayList<>();
+        for (Path sourceFile : sourceFiles) {
+            if (!key(sourceFile).equals(cachedKey(sourceFile))) {
+                stale.add(sourceFile);
+            }
+        }
+        System.out.println("Parsing " + stale.size() + " of " + sourceFiles.size() + " source files, the others are cached");
+        if (stale.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(processor.decompressors(), stale.size()));
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Path sourceFile : stale) {
+                futures.add(executor.submit(() -> {
+                    build(sourceFile, processor.forFile(sourceFile), Math.max(1, processor.parsers() / processor.decompressors()));
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns what the cache of a source file depends on: its name, size and modification time
+     */
+    String key(Path sourceFile) throws IOException {
+        return sourceFile.getFileName() + "," + Files.size(sourceFile) + "," + Files.getLastModifiedTime(sourceFile).toMillis();
+    }
+
+    /**
+     * Merges the users of the source files into users.txt, and returns the ids of the users of every file
+     */
+    List<int[]> mergeUsers(List<Path> sourceFiles, Path usersPath) throws IOException {
+        List<int[]> ids = new ArrayList<>();
+        List<BufferedReader> readers = new ArrayList<>();
+        try (BufferedWriter writer = Files.newBufferedWriter(usersPath)) {
+            PriorityQueue<UserCursor> queue = new PriorityQueue<>();
+            for (Path sourceFile : sourceFiles) {
+                Properties info = info(sourceFile);
+                ids.add(new int[Integer.parseInt(info.getProperty("users")) + 1]);
+                BufferedReader reader = Files.newBufferedReader(entry(sourceFile).resolve(UsersFile));
+                readers.add(reader);
+                UserCursor cursor = new UserCursor(reader, ids.size() - 1);
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+
+            int id = 0;
+            byte[] previous = null;
+            while (!queue.isEmpty()) {
+                UserCursor cursor = queue.poll();
+                if (previous == null || !Arrays.equals(previous, cursor.key)) {
+                    writer.write(cursor.line);
+                    writer.write('\n');
+                    previous = cursor.key;
+                    id++;
+                }
+                ids.get(cursor.file)[cursor.id] = id;
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+            System.out.println("Merged " + id + " users");
+        } finally {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Merges the placements of the source files, with the ids of their users in users.txt
+     */
+    void mergePlacements(List<Path> sourceFiles, List<int[]> users, PlacementWriter writer) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        for (Path sourceFile : sourceFiles) {
+            runs.add(entry(sourceFile).resolve(RunFile));
+        }
+        SortedRun.merge(runs, users, writer);
+    }
+
+    List<Mod> mods(List<Path> sourceFiles) throws IOException {
+        List<Mod> mods = new ArrayList<>();
+        for (Path sourceFile : sourceFiles) {
+            Mods fileMods = Mods.read(entry(sourceFile));
+            for (int i = 0; i < fileMods.size(); i++) {
+                mods.add(fileMods.get(i));
+            }
+        }
+        return mods;
+    }
+
+    private void build(Path sourceFile, FileProcessor processor, int threads) throws IOException {
+        // Taken before parsing, so changes while parsing are picked up next time
+        String key = key(sourceFile);
+
+        ConcurrentUserDictionary interner = new ConcurrentUserDictionary(Simplifier.MaxUserBytes);
+        List<Mod> mods = Collections.synchronizedList(new ArrayList<>());
+        SourceParser sourceParser = new SourceParser(year, interner::intern, mods::add);
+        PlacementColumns columns = new PlacementColumns();
+        Simplifier.parsePlacements(processor, (buffer, start, end, batch) -> {
+            // Users of lines without a placement are in users.txt as well
+            int i1 = Bytes.indexOf(buffer, start, end, Comma);
+            interner.intern(buffer, i1 + 1, Bytes.indexOf(buffer, i1 + 1, end, Comma));
+            return sourceParser.parse(buffer, start, end, batch);
+        }, columns::addAll);
+
+        // Number the users in the order of users.txt, so merging keeps the runs sorted
+        int[] sorted = interner.sortedIds();
+        int[] ids = new int[sorted.length + 1];
+        for (int i = 0; i < sorted.length; i++) {
+            ids[sorted[i]] = i + 1;
+        }
+        columns.mapUsers(ids);
+        int[] order = new RadixSorter(threads).sort(columns);
+
+        Path temp = Files.createTempDirectory(directory, TempPrefix);
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.resolve(UsersFile))) {
+            for (int id : sorted) {
+                writer.write(Encoder.encodeToString(interner.key(id)));
+                writer.write('\n');
+            }
+        }
+        SortedRun.write(temp.resolve(RunFile), columns, order);
+        List<Mod> sortedMods = new ArrayList<>(mods);
+        Collections.sort(sortedMods);
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.resolve(Mods.FileName))) {
+            for (Mod mod : sortedMods) {
+                writer.write(mod.toString());
+                writer.write('\n');
+            }
+        }
+
+        Properties info = new Properties();
+        info.setProperty("version", String.valueOf(Version));
+        info.setProperty("key", key);
+        info.setProperty("users", String.valueOf(sorted.length));
+        info.setProperty("placements", String.valueOf(columns.size()));
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.resolve(InfoFile))) {
+            info.store(writer, null);
+        }
+
+        Path entry = entry(sourceFile);
+        if (Files.exists(entry)) {
+            deleteDirectory(entry);
+        }
+        Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Cached " + columns.size() + " placements by " + sorted.length + " users of " + sourceFile.getFileName());
+    }
+
+    private String cachedKey(Path sourceFile) throws IOException {
+        if (!Files.exists(entry(sourceFile).resolve(InfoFile))) {
+            return null;
+        }
+        Properties info = info(sourceFile);
+        return String.valueOf(Version).equals(info.getProperty("version")) ? info.getProperty("key") : null;
+    }
+
+    private Properties info(Path sourceFile) throws IOException {
+        Properties info = new Properties();
+        try (BufferedReader reader = Files.newBufferedReader(entry(sourceFile).resolve(InfoFile))) {
+            info.load(reader);
+        }
+        return info;
+    }
+
+    private Path entry(Path sourceFile) {
+        return directory.resolve(sourceFile.getFileName().toString());
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Goes through the users of a file, in the order of users.txt
+     */
+    private static final class UserCursor implements Comparable<UserCursor> {
+        private final BufferedReader reader;
+        private final int file;
+        private int id;
+        private String line;
+        private byte[] key;
+
+        private UserCursor(BufferedReader reader, int file) {
+            this.reader = reader;
+            this.file = file;
+        }
+
+        private boolean next() throws IOException {
+            line = reader.readLine();
+            if (line == null) {
+                return false;
+            }
+            key = Decoder.decode(line);
+            id++;
+            return true;
+        }
+
+        /**
+         * Orders like {@link ConcurrentUserDictionary#sortedIds()}, on the decoded hash as unsigned bytes
+         */
+        @Override
+        public int compareTo(UserCursor o) {
+            return Arrays.compareUnsigned(key, o.key);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.nio.charset.*;
+import java.time.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Parses the lines of the source files of a year into placements. Mod lines are parsed into mods, and passed on.
+ * Lines are parsed on many threads, so the consumer of the mods must be thread safe.
+ */
+final class SourceParser implements PlacementParser {
+    private static final ColorIndex ColorIndex2022 = new ColorIndex(Renderer.Colors2022);
+    private static final ColorIndex ColorIndex2023 = new ColorIndex(Renderer.Colors2023);
+    private static final byte Comma = ',';
+
+    private final PlacementParser parser;
+    private final UserIds users;
+    private final Consumer<Mod> mods;
+    private final TimestampParser timestamps = new TimestampParser();
+
+    SourceParser(Year year, UserIds users, Consumer<Mod> mods) {
+        this.users = Objects.requireNonNull(users);
+        this.mods = Objects.requireNonNull(mods);
+        this.parser = switch (year.getValue()) {
+            case 2017 -> this::parse2017;
+            case 2022 -> this::parse2022;
+            case 2023 -> this::parse2023;
+            default -> throw new IllegalArgumentException("Year must be 2017, 2022 or 2023");
+        };
+    }
+
+    @Override
+    public boolean parse(byte[] buffer, int start, int end, PlacementBatch batch) {
+        return parser.parse(buffer, start, end, batch);
+    }
+
+    private boolean parse2017(byte[] buffer, int start, int end, PlacementBatch batch) {
+        int i1 = Bytes.indexOf(buffer, start, end, Comma);
+        int i2 = Bytes.indexOf(buffer, i1 + 1, end, Comma);
+        int i3 = Bytes.indexOf(buffer, i2 + 1, end, Comma);
+        int i4 = Bytes.indexOf(buffer, i3 + 1, end, Comma);
+
+        // Skip invalid lines
+        if (i4 == i3 + 1 || i3 == i2 + 1) {
+            return false;
+        }
+
+        // Take out invalid coordinates
+        short x = (short) Bytes.parseInt(buffer, i2 + 1, i3);
+        short y = (short) Bytes.parseInt(buffer, i3 + 1, i4);
+        if (x > 999 || y > 999) {
+            return false;
+        }
+
+        long ts = timestamps.parse(buffer, start, i1);
+        int user = users.get(buffer, i1 + 1, i2);
+        int color = Bytes.parseInt(buffer, i4 + 1, end);
+        batch.add(ts, user, x, y, color);
+        return true;
+    }
+
+    private boolean parse2022(byte[] buffer, int start, int end, PlacementBatch batch) {
+        int i1 = Bytes.indexOf(buffer, start, end, Comma);
+        int i2 = Bytes.indexOf(buffer, i1 + 1, end, Comma);
+        int i3 = Bytes.indexOf(buffer, i2 + 1, end, Comma);
+        int i4 = Bytes.indexOf(buffer, i3 + 1, end, Comma);
+
+        // Mod lines have more than 4 commas, and a rectangle like "x1,y1,x2,y2"
+        if (Bytes.indexOf(buffer, i4 + 1, end, Comma) != end) {
+            long ts = timestamps.parse(buffer, start, i1);
+            int[] coordinates = parseCoordinates(buffer, i3 + 1, end, 4);
+            int color = ColorIndex2022.get(buffer, i2 + 1, i3);
+            mods.accept(Mod.rectangle(ts, coordinates[0], coordinates[1], coordinates[2], coordinates[3], color));
+            return false;
+        }
+
+        long ts = timestamps.parse(buffer, start, i1);
+        int user = users.get(buffer, i1 + 1, i2);
+        short x = (short) Bytes.parseInt(buffer, i3 + 2, i4);
+        short y = (short) Bytes.parseInt(buffer, i4 + 1, end - 1);
+        int color = ColorIndex2022.get(buffer, i2 + 1, i3);
+        batch.add(ts, user, x, y, color);
+        return true;
+    }
+
+    private boolean parse2023(byte[] buffer, int start, int end, PlacementBatch batch) {
+        int i1 = Bytes.indexOf(buffer, start, end, Comma);
+        int i2 = Bytes.indexOf(buffer, i1 + 1, end, Comma);
+        int i3 = Bytes.indexOf(buffer, i2 + 1, end, Comma);
+        int i4 = Bytes.indexOf(buffer, i3 + 1, end, Comma);
+
+        // Mod lines have more than 4 commas, and a circle like "{X: x, Y: y, R: r}" or a rectangle like "x1,y1,x2,y2"
+        if (Bytes.indexOf(buffer, i4 + 1, end, Comma) != end) {
+            long ts = timestamps.parse(buffer, start, i1);
+            int last = Bytes.lastIndexOf(buffer, i4, end, Comma);
+            int color = ColorIndex2023.get(buffer, last + 1, end);
+            if (buffer[i2 + 2] == '{') {
+                int[] coordinates = parseCoordinates(buffer, i2 + 1, last, 3);
+                mods.accept(Mod.circle(ts, coordinates[0], coordinates[1], coordinates[2], color));
+            } else {
+                int[] coordinates = parseCoordinates(buffer, i2 + 1, last, 4);
+                mods.accept(Mod.rectangle(ts, coordinates[0], coordinates[1], coordinates[2], coordinates[3], color));
+            }
+            return false;
+        }
+
+        long ts = timestamps.parse(buffer, start, i1);
+        int user = users.get(buffer, i1 + 1, i2);
+        short x = (short) Bytes.parseInt(buffer, i2 + 2, i3);
+        short y = (short) Bytes.parseInt(buffer, i3 + 1, i4 - 1);
+        int color = ColorIndex2023.get(buffer, i4 + 1, end);
+        batch.add(ts, user, x, y, color);
+        return true;
+    }
+
+    /**
+     * Parses the numbers in [from, to) into the coordinates, skipping anything in between them
+     */
+    private static int[] parseCoordinates(byte[] buffer, int from, int to, int count) {
+        int[] coordinates = new int[count];
+        int i = from;
+        for (int found = 0; found < count; found++) {
+            while (i < to && buffer[i] != '-' && (buffer[i] < '0' || buffer[i] > '9')) {
+                i++;
+            }
+            if (i == to) {
+                throw new IllegalArgumentException("Expected " + count + " coordinates in mod: "
+                    + new String(buffer, from, to - from, StandardCharsets.ISO_8859_1));
+            }
+            int numberEnd = i + 1;
+            while (numberEnd < to && buffer[numberEnd] >= '0' && buffer[numberEnd] <= '9') {
+                numberEnd++;
+            }
+            coordinates[found] = Bytes.parseInt(buffer, i, numberEnd);
+            i = numberEnd;
+        }
+        return coordinates;
+    }
+
+}
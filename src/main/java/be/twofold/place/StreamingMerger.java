@@ -0,0 +1,192 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/**
+ * Merges source files that are each (mostly) in time order, without a global sort.
+ * <p>
+ * Every file is read on its own thread and passed through a bounded reorder buffer, which fixes up placements
+ * that are slightly out of order. The resulting per-file streams are merged straight into the output. A file that
+ * is further out of order than the reorder buffer can fix makes the merge fail.
+ */
+final class StreamingMerger {
+
+    private static final int BatchSize = 1024;
+    private static final int BatchesPerFile = 16;
+    private static final Placement[] EndOfFile = new Placement[0];
+
+    private final List<Path> sourceFiles;
+    private final PlacementParser parser;
+    private final int window;
+
+    StreamingMerger(List<Path> sourceFiles, PlacementParser parser, int window) {
+        this.sourceFiles = List.copyOf(sourceFiles);
+        this.parser = Objects.requireNonNull(parser);
+        if (window < 1) {
+            throw new IllegalArgumentException("Reorder window must be positive");
+        }
+        this.window = window;
+    }
+
+    void writeTo(PlacementWriter writer) throws IOException {
+        List<FileReader> readers = sourceFiles.stream()
+            .map(FileReader::new)
+            .collect(Collectors.toList());
+
+        List<Thread> threads = new ArrayList<>();
+        for (FileReader reader : readers) {
+            Thread thread = new Thread(reader, "merge-" + reader.path.getFileName());
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        try {
+            PriorityQueue<FileReader> queue = new PriorityQueue<>();
+            for (FileReader reader : readers) {
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                FileReader reader = queue.poll();
+                writer.write(reader.current());
+                if (reader.advance()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            threads.forEach(Thread::interrupt);
+        }
+    }
+
+    private final class FileReader implements Runnable, Comparable<FileReader> {
+        private final Path path;
+        private final BlockingQueue<Placement[]> batches = new ArrayBlockingQueue<>(BatchesPerFile);
+        private volatile Throwable failure;
+
+        // Owned by the merging thread
+        private Placement[] batch = EndOfFile;
+        private int index;
+
+        private FileReader(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PriorityQueue<Placement> buffer = new PriorityQueue<>(window + 1);
+                Emitter emitter = new Emitter();
+                PlacementBatch row = new PlacementBatch(1);
+
+                // The reorder buffer needs objects, so every placement is taken out of the batch it's parsed into
+                FileProcessor.readFile(path, (bytes, start, end) -> {
+                    if (!parser.parse(bytes, start, end, row)) {
+                        return;
+                    }
+                    Placement placement = row.placement(0);
+                    row.clear();
+                    emitter.track(placement);
+                    buffer.add(placement);
+                    if (buffer.size() > window) {
+                        emitter.emit(buffer.poll());
+                    }
+                });
+                while (!buffer.isEmpty()) {
+                    emitter.emit(buffer.poll());
+                }
+                emitter.flush();
+
+                if (emitter.inversions == 0) {
+                    System.out.println("File is sorted: " + path);
+                } else {
+                    System.out.println("File has " + emitter.inversions + " placements out of order: " + path);
+                }
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                try {
+                    batches.put(EndOfFile);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+
+        private boolean advance() throws IOException {
+            if (++index < batch.length) {
+                return true;
+            }
+            try {
+                batch = batches.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            index = 0;
+            if (batch == EndOfFile) {
+                if (failure != null) {
+                    throw new IOException("Could not read " + path, failure);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        private Placement current() {
+            return batch[index];
+        }
+
+        @Override
+        public int compareTo(FileReader o) {
+            return current().compareTo(o.current());
+        }
+
+        private final class Emitter {
+            private Placement[] pending = new Placement[BatchSize];
+            private int count;
+            private Placement lastSeen;
+            private Placement lastEmitted;
+            private long inversions;
+
+            private void track(Placement placement) {
+                if (lastSeen != null && placement.compareTo(lastSeen) < 0) {
+                    inversions++;
+                }
+                lastSeen = placement;
+            }
+
+            private void emit(Placement placement) {
+                if (lastEmitted != null && placement.compareTo(lastEmitted) < 0) {
+                    throw new IllegalStateException("Reorder window of " + window + " is too small for " + path);
+                }
+                lastEmitted = placement;
+                pending[count++] = placement;
+                if (count == BatchSize) {
+                    flush();
+                }
+            }
+
+            private void flush() {
+                if (count == 0) {
+                    return;
+                }
+                try {
+                    batches.put(Arrays.copyOf(pending, count));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while reading " + path);
+                }
+                count = 0;
+            }
+        }
+    }
+
+}
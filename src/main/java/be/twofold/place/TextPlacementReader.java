@@ -0,0 +1,44 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+final class TextPlacementReader implements PlacementReader {
+
+    private final Path path;
+
+    TextPlacementReader(Path path) {
+        this.path = Objects.requireNonNull(path);
+    }
+
+    @Override
+    public void read(long fromRecord, long toRecord, long untilTimestamp, PlacementConsumer consumer) throws IOException {
+        try (Stream<String> lines = Files.lines(path)) {
+            // Lines have no fixed size, so records before the first one still have to be skipped one by one
+            Iterator<Placement> placements = lines
+                .skip(fromRecord)
+                .limit(Math.max(0, toRecord - fromRecord))
+                .map(Placement::parse)
+                .iterator();
+            while (placements.hasNext()) {
+                Placement p = placements.next();
+                if (p.getTimestamp() > untilTimestamp) {
+                    return;
+                }
+                consumer.accept(p.getTimestamp(), p.getUser(), p.getX(), p.getY(), p.getColor());
+            }
+        }
+    }
+
+    @Override
+    public long count() throws IOException {
+        try (Stream<String> lines = Files.lines(path)) {
+            return lines.count();
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.io.*;
+import java.nio.file.*;
+
+final class TextPlacementWriter implements PlacementWriter {
+
+    private final BufferedWriter writer;
+    private final StringBuilder line = new StringBuilder();
+    private char[] chars = new char[64];
+
+    TextPlacementWriter(Path path) throws IOException {
+        this.writer = Files.newBufferedWriter(path);
+    }
+
+    @Override
+    public void write(Placement placement) throws IOException {
+        writer.write(placement.toString());
+        writer.write('\n');
+    }
+
+    /**
+     * Writes the same lines as {@link Placement#toString()}, through a reused buffer
+     */
+    @Override
+    public void write(PlacementBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            line.setLength(0);
+            line.append(batch.timestamp(i)).append(',')
+                .append(batch.user(i)).append(',')
+                .append(batch.x(i)).append(',')
+                .append(batch.y(i)).append(',')
+                .append(batch.color(i)).append('\n');
+            if (line.length() > chars.length) {
+                chars = new char[line.length()];
+            }
+            line.getChars(0, line.length(), chars, 0);
+            writer.write(chars, 0, line.length());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+}
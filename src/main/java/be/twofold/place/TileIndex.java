@@ -0,0 +1,254 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The placements bucketed by tile of {@link #TileSize} pixels, so the history of a tile can be replayed without
+ * reading the rest of the canvas.
+ * <p>
+ * The file starts with a header: magic, version, tile size, tiles across, chunk count, record count, the position
+ * of the chunk table, the placement coordinates where the tiles start, and the position of the timeline. The chunks
+ * follow, each holding up to {@link #ChunkSize} placements of a single tile column by column: the record of the
+ * placement in the placements file ({@code int}), the offset of the pixel within the tile ({@code short}) and the
+ * color id ({@code byte}). The table after them holds the tile, placement count and position of every chunk. The
+ * chunks of a tile are in record order.
+ * <p>
+ * The timeline at the end is what the frames are found from, without reading the placements: the second of the
+ * first placement ({@code long}), the number of seconds after it ({@code int}), and the number of placements up to
+ * and including every one of those seconds ({@code int}). Then the number of canvas states ({@code int}), and the
+ * record from which every state starts and the state ({@code int}s). All numbers are little endian.
+ */
+final class TileIndex implements Closeable {
+
+    static final String FileName = "tiles.bin";
+    static final int Magic = 0x49544C50; // "PLTI"
+    static final int Version = 3;
+    static final int HeaderSize = 48;
+    static final int TileSize = 256;
+    static final int TilesAcross = 128;
+    static final int ChunkSize = 4096;
+    static final int EntrySize = 4 + 2 + 1;
+    static final int ChunkEntrySize = 16;
+
+    private final FileChannel channel;
+    private final int originX;
+    private final int originY;
+    private final int[] tiles;
+    private final long[][] positions;
+    private final int[][] counts;
+    private final int records;
+    private final long firstSecond;
+    private final int[] perSecond;
+    private final int[] stateRecords;
+    private final int[] states;
+
+    TileIndex(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(0, HeaderSize);
+            if (header.getInt() != Magic || header.getInt() != Version) {
+                throw new IOException("Not a tile index of version " + Version + ": " + path);
+            }
+            if (header.getInt() != TileSize || header.getInt() != TilesAcross) {
+                throw new IOException("Unsupported tile layout in " + path);
+            }
+            int chunks = header.getInt();
+            records = header.getInt();
+            long tablePosition = header.getLong();
+            originX = header.getInt();
+            originY = header.getInt();
+            long timelinePosition = header.getLong();
+
+            ByteBuffer seconds = read(timelinePosition, 12);
+            firstSecond = seconds.getLong();
+            perSecond = new int[seconds.getInt()];
+            ByteBuffer timeline = read(timelinePosition + 12, perSecond.length * 4 + 4);
+            timeline.asIntBuffer().get(perSecond);
+            int stateCount = timeline.getInt(perSecond.length * 4);
+            ByteBuffer stateTable = read(timelinePosition + 12 + perSecond.length * 4L + 4, stateCount * 8);
+            stateRecords = new int[stateCount];
+            states = new int[stateCount];
+            for (int i = 0; i < stateCount; i++) {
+                stateRecords[i] = stateTable.getInt();
+                states[i] = stateTable.getInt();
+            }
+
+            // Group the chunks by tile, keeping them in order
+            ByteBuffer table = read(tablePosition, chunks * ChunkEntrySize);
+            Map<Integer, List<Integer>> byTile = new TreeMap<>();
+            for (int i = 0; i < chunks; i++) {
+                byTile.computeIfAbsent(table.getInt(i * ChunkEntrySize), __ -> new ArrayList<>()).add(i);
+            }
+            tiles = new int[byTile.size()];
+            positions = new long[byTile.size()][];
+            counts = new int[byTile.size()][];
+            int t = 0;
+            for (Map.Entry<Integer, List<Integer>> entry : byTile.entrySet()) {
+                List<Integer> list = entry.getValue();
+                tiles[t] = entry.getKey();
+                positions[t] = new long[list.size()];
+                counts[t] = new int[list.size()];
+                for (int i = 0; i < list.size(); i++) {
+                    counts[t][i] = table.getInt(list.get(i) * ChunkEntrySize + 4);
+                    positions[t][i] = table.getLong(list.get(i) * ChunkEntrySize + 8);
+                }
+                t++;
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the placement coordinates of the top left corner of the first tile
+     */
+    int originX() {
+        return originX;
+    }
+
+    int originY() {
+        return originY;
+    }
+
+    int records() {
+        return records;
+    }
+
+    /**
+     * Returns the second of the first placement, in seconds since the epoch
+     */
+    long firstSecond() {
+        return firstSecond;
+    }
+
+    /**
+     * Returns the number of placements at or before the start of a second, in seconds since the epoch
+     */
+    int recordsUntil(long second) {
+        if (records == 0 || second < firstSecond) {
+            return 0;
+        }
+        if (second - firstSecond >= perSecond.length) {
+            return records;
+        }
+        return perSecond[(int) (second - firstSecond)];
+    }
+
+    /**
+     * Returns the state of the canvas before a record
+     */
+    int state(long record) {
+        int state = 0;
+        for (int i = 0; i < stateRecords.length && stateRecords[i] <= record; i++) {
+            state = states[i];
+        }
+        return state;
+    }
+
+    /**
+     * Returns the tile of a pixel, relative to the origin
+     */
+    static int tile(int x, int y) {
+        return (y / TileSize) * TilesAcross + x / TileSize;
+    }
+
+    static int tileX(int tile) {
+        return tile % TilesAcross * TileSize;
+    }
+
+    static int tileY(int tile) {
+        return tile / TilesAcross * TileSize;
+    }
+
+    /**
+     * Returns the tiles that have any placements, in order
+     */
+    int[] tiles() {
+        return tiles.clone();
+    }
+
+    /**
+     * Opens a cursor over the placements of a tile. Cursors can be used from different threads.
+     */
+    Cursor cursor(int tile) {
+        int index = Arrays.binarySearch(tiles, tile);
+        if (index < 0) {
+            return new Cursor(new long[0], new int[0]);
+        }
+        return new Cursor(positions[index], counts[index]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of the tile index");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Goes through the placements of a tile, in record order
+     */
+    final class Cursor {
+        private final long[] chunkPositions;
+        private final int[] chunkCounts;
+        private final int[] records = new int[ChunkSize];
+        private final short[] offsets = new short[ChunkSize];
+        private final byte[] colors = new byte[ChunkSize];
+        private int chunk = -1;
+        private int count;
+        private int index;
+
+        private Cursor(long[] chunkPositions, int[] chunkCounts) {
+            this.chunkPositions = chunkPositions;
+            this.chunkCounts = chunkCounts;
+        }
+
+        /**
+         * Returns the record of the current placement, or {@link Long#MAX_VALUE} when there are none left
+         */
+        long record() throws IOException {
+            while (index == count) {
+                if (chunk + 1 == chunkPositions.length) {
+                    return Long.MAX_VALUE;
+                }
+                load(++chunk);
+            }
+            return records[index];
+        }
+
+        int offset() {
+            return Short.toUnsignedInt(offsets[index]);
+        }
+
+        byte color() {
+            return colors[index];
+        }
+
+        void next() {
+            index++;
+        }
+
+        private void load(int chunk) throws IOException {
+            count = chunkCounts[chunk];
+            index = 0;
+            ByteBuffer buffer = read(chunkPositions[chunk], count * EntrySize);
+            buffer.asIntBuffer().get(records, 0, count);
+            buffer.position(count * 4).slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(offsets, 0, count);
+            buffer.position(count * 6).get(colors, 0, count);
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * Buckets placements by tile while they are written. Every tile collects a chunk in memory, and the chunk is
+ * appended to the file when full. Also counts the placements per second and follows the canvas states, for the
+ * timeline. See {@link TileIndex} for the layout.
+ */
+final class TileIndexWriter implements PlacementWriter {
+
+    private final PlacementWriter delegate;
+    private final FileChannel channel;
+    private final int originX;
+    private final int originY;
+    private final Bucket[] buckets = new Bucket[TileIndex.TilesAcross * TileIndex.TilesAcross];
+    private final ByteArrayOutputStream table = new ByteArrayOutputStream();
+    private final ByteBuffer chunk = ByteBuffer
+        .allocate(TileIndex.ChunkSize * TileIndex.EntrySize)
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+    private final Canvas shape;
+    private final ByteArrayOutputStream states = new ByteArrayOutputStream();
+
+    private long position = TileIndex.HeaderSize;
+    private int records;
+    private int chunks;
+    private long firstSecond = Long.MIN_VALUE;
+    private int[] perSecond = new int[1024];
+
+    TileIndexWriter(PlacementWriter delegate, Path path, Year year) throws IOException {
+        this.delegate = Objects.requireNonNull(delegate);
+        CanvasLayout.Phase bounds = CanvasLayout.forYear(year).bounds();
+        this.originX = bounds.minX();
+        this.originY = bounds.minY();
+        this.shape = Canvas.forYear(year);
+        addState(0, shape.state());
+        this.channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.channel.position(TileIndex.HeaderSize);
+    }
+
+    @Override
+    public void write(Placement placement) throws IOException {
+        add(placement.getTimestamp(), placement.getX(), placement.getY(), placement.getColor());
+        delegate.write(placement);
+    }
+
+    @Override
+    public void write(PlacementBatch batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            add(batch.timestamp(i), batch.x(i), batch.y(i), batch.color(i));
+        }
+        delegate.write(batch);
+    }
+
+    private void add(long timestamp, int placementX, int placementY, int color) throws IOException {
+        int x = placementX - originX;
+        int y = placementY - originY;
+        if (x < 0 || y < 0 || x >= TileIndex.TilesAcross * TileIndex.TileSize || y >= TileIndex.TilesAcross * TileIndex.TileSize) {
+            throw new IllegalArgumentException("Placement outside of the tiles: " + placementX + "," + placementY);
+        }
+        if (records == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many placements for the tile index");
+        }
+
+        int tile = TileIndex.tile(x, y);
+        Bucket bucket = buckets[tile];
+        if (bucket == null) {
+            bucket = buckets[tile] = new Bucket();
+        }
+        bucket.records[bucket.count] = records;
+        bucket.offsets[bucket.count] = (short) ((y % TileIndex.TileSize) * TileIndex.TileSize + x % TileIndex.TileSize);
+        bucket.colors[bucket.count] = (byte) color;
+        if (++bucket.count == TileIndex.ChunkSize) {
+            flush(tile, bucket);
+        }
+
+        // Every placement counts for the first whole second at or after it
+        long second = Math.floorDiv(timestamp + 999, 1000);
+        if (firstSecond == Long.MIN_VALUE) {
+            firstSecond = Math.floorDiv(timestamp, 1000);
+        }
+        long slot = second - firstSecond;
+        if (slot >= perSecond.length) {
+            if (slot >= Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Placements span too long for the tile index");
+            }
+            perSecond = Arrays.copyOf(perSecond, (int) Math.max(slot + 1, perSecond.length * 2L));
+        }
+        perSecond[(int) slot]++;
+
+        int state = shape.state();
+        shape.advance(timestamp, placementX, placementY);
+        if (shape.state() != state) {
+            addState(records + 1, shape.state());
+        }
+        records++;
+    }
+
+    /**
+     * Notes the state of the canvas from a record on
+     */
+    private void addState(int record, int state) {
+        ByteBuffer entry = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        entry.putInt(record);
+        entry.putInt(state);
+        states.write(entry.array(), 0, 8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            delegate.close();
+
+            for (int tile = 0; tile < buckets.length; tile++) {
+                if (buckets[tile] != null && buckets[tile].count > 0) {
+                    flush(tile, buckets[tile]);
+                }
+            }
+
+            long tablePosition = position;
+            writeFully(ByteBuffer.wrap(table.toByteArray()));
+            long timelinePosition = tablePosition + table.size();
+            writeFully(timeline());
+
+            ByteBuffer header = ByteBuffer.allocate(TileIndex.HeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(TileIndex.Magic);
+            header.putInt(TileIndex.Version);
+            header.putInt(TileIndex.TileSize);
+            header.putInt(TileIndex.TilesAcross);
+            header.putInt(chunks);
+            header.putInt(records);
+            header.putLong(tablePosition);
+            header.putInt(originX);
+            header.putInt(originY);
+            header.putLong(timelinePosition);
+            channel.position(0);
+            writeFully(header.flip());
+        }
+    }
+
+    /**
+     * Returns the first second, the number of placements up to and including every second after it, and the
+     * states of the canvas
+     */
+    private ByteBuffer timeline() {
+        int seconds = 0;
+        for (int i = 0; i < perSecond.length; i++) {
+            if (perSecond[i] != 0) {
+                seconds = i + 1;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer
+            .allocate(8 + 4 + seconds * 4 + 4 + states.size())
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(records > 0 ? firstSecond : 0);
+        buffer.putInt(seconds);
+        int total = 0;
+        for (int i = 0; i < seconds; i++) {
+            total += perSecond[i];
+            buffer.putInt(total);
+        }
+        buffer.putInt(states.size() / 8);
+        buffer.put(states.toByteArray());
+        return buffer.flip();
+    }
+
+    private void flush(int tile, Bucket bucket) throws IOException {
+        int count = bucket.count;
+        chunk.clear();
+        for (int i = 0; i < count; i++) {
+            chunk.putInt(bucket.records[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            chunk.putShort(bucket.offsets[i]);
+        }
+        chunk.put(bucket.colors, 0, count);
+        writeFully(chunk.flip());
+
+        ByteBuffer entry = ByteBuffer.allocate(TileIndex.ChunkEntrySize).order(ByteOrder.LITTLE_ENDIAN);
+        entry.putInt(tile);
+        entry.putInt(count);
+        entry.putLong(position);
+        table.write(entry.array(), 0, TileIndex.ChunkEntrySize);
+
+        position += (long) count * TileIndex.EntrySize;
+        bucket.count = 0;
+        chunks++;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static final class Bucket {
+        private final int[] records = new int[TileIndex.ChunkSize];
+        private final short[] offsets = new short[TileIndex.ChunkSize];
+        private final byte[] colors = new byte[TileIndex.ChunkSize];
+        private int count;
+    }
+
+}
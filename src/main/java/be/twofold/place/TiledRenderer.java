@@ -0,0 +1,293 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Renders from the placements bucketed by tile. Every tile replays its own history on the pool, and the tiles are
+ * put together when a batch of frames is dumped. The frames come from the timeline in the index, so with a region
+ * only the tiles in it are read, plus the placements around mods, and the frames are cropped to it. Mods are applied
+ * to every tile they cover, including tiles without placements. Gives the same frames as the sequential renderer.
+ */
+final class TiledRenderer {
+
+    private static final int FramesPerBatch = 16;
+
+    private final PlacementReader reader;
+    private final TileIndex index;
+    private final Mods mods;
+    private final FrameWriter writer;
+    private final Year year;
+    private final CanvasLayout layout;
+    private final long frameMillis;
+    private final int threads;
+    private final int[] region;
+
+    TiledRenderer(PlacementReader reader, TileIndex index, Mods mods, Path targetDirectory, Year year, Options options) throws IOException {
+        this.reader = Objects.requireNonNull(reader);
+        this.index = Objects.requireNonNull(index);
+        this.mods = Objects.requireNonNull(mods);
+        this.year = Objects.requireNonNull(year);
+        this.layout = CanvasLayout.forYear(year);
+        this.frameMillis = options.getLong("frame-interval", 300) * 1000;
+        if (frameMillis <= 0) {
+            throw new IllegalArgumentException("Frame interval must be positive");
+        }
+        this.threads = options.getInt("render-threads", 1);
+        if (threads < 1) {
+            throw new IllegalArgumentException("Render threads must be positive");
+        }
+        String region = options.getString("region", null);
+        this.region = region != null ? parseRegion(region) : null;
+
+        FrameFormat format = FrameFormat.parse(options.getString("output", "png"));
+        this.writer = format.newWriter(targetDirectory, year, options);
+    }
+
+    private static int[] parseRegion(String s) {
+        String[] parts = s.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Region must look like x,y,width,height: " + s);
+        }
+        int[] region = Arrays.stream(parts).mapToInt(part -> Integer.parseInt(part.trim())).toArray();
+        if (region[2] < 1 || region[3] < 1) {
+            throw new IllegalArgumentException("Region can't be empty: " + s);
+        }
+        return region;
+    }
+
+    void render() throws IOException {
+        try (writer) {
+            Timeline timeline = Timeline.read(index, reader, mods, frameMillis);
+            Map<Integer, List<Integer>> tileMods = modsByTile();
+            SortedSet<Integer> tiles = new TreeSet<>(tileMods.keySet());
+            Arrays.stream(index.tiles()).forEach(tiles::add);
+
+            List<TileReplay> replays = new ArrayList<>();
+            for (int tile : tiles) {
+                if (region == null || intersects(tile)) {
+                    int[] modIndices = tileMods.getOrDefault(tile, List.of()).stream().mapToInt(Integer::intValue).toArray();
+                    replays.add(new TileReplay(tile, index.cursor(tile), modIndices));
+                }
+            }
+            System.out.println("Rendering " + timeline.size() + " frames from " + replays.size() + " tiles");
+
+            BlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>();
+            ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, workQueue);
+            LongSupplier queued = workQueue::size;
+            Metrics.gauge("tile.queue", queued);
+            try {
+                Batch batch = new Batch();
+                for (int first = 0; first < timeline.size(); first += FramesPerBatch) {
+                    batch.prepare(timeline, first, Math.min(first + FramesPerBatch, timeline.size()));
+
+                    List<Future<?>> futures = new ArrayList<>();
+                    for (TileReplay replay : replays) {
+                        futures.add(executor.submit(() -> {
+                            Metrics.Span span = Metrics.start("tile");
+                            replay.render(timeline, batch);
+                            span.end(1, 0);
+                            return null;
+                        }));
+                    }
+                    for (Future<?> future : futures) {
+                        future.get();
+                    }
+
+                    for (int i = 0; i < batch.count; i++) {
+                        writer.write(batch.frames[i]);
+                    }
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                executor.shutdownNow();
+                Metrics.removeGauge("tile.queue", queued);
+            }
+        }
+    }
+
+    /**
+     * Returns the mods that cover every tile, in order
+     */
+    private Map<Integer, List<Integer>> modsByTile() {
+        int size = TileIndex.TilesAcross * TileIndex.TileSize;
+        Map<Integer, List<Integer>> tileMods = new HashMap<>();
+        for (int i = 0; i < mods.size(); i++) {
+            Mod mod = mods.get(i);
+            int fromX = Math.max(mod.getMinX() - index.originX(), 0) / TileIndex.TileSize;
+            int fromY = Math.max(mod.getMinY() - index.originY(), 0) / TileIndex.TileSize;
+            int toX = Math.min(mod.getMaxX() - index.originX(), size - 1);
+            int toY = Math.min(mod.getMaxY() - index.originY(), size - 1);
+            if (toX < 0 || toY < 0) {
+                continue;
+            }
+            for (int y = fromY; y <= toY / TileIndex.TileSize; y++) {
+                for (int x = fromX; x <= toX / TileIndex.TileSize; x++) {
+                    tileMods.computeIfAbsent(y * TileIndex.TilesAcross + x, __ -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+        return tileMods;
+    }
+
+    private boolean intersects(int tile) {
+        int x = TileIndex.tileX(tile) + index.originX();
+        int y = TileIndex.tileY(tile) + index.originY();
+        return x < region[0] + region[2] && x + TileIndex.TileSize > region[0]
+            && y < region[1] + region[3] && y + TileIndex.TileSize > region[1];
+    }
+
+    /**
+     * The frames that are rendered together, with the position of every frame relative to the tiles. The pixels
+     * of a frame are reused for a later frame of the same size and position, which leaves the parts without tiles
+     * in the background color.
+     */
+    private final class Batch {
+        private final Frame[] frames = new Frame[FramesPerBatch];
+        private final int[] originX = new int[FramesPerBatch];
+        private final int[] originY = new int[FramesPerBatch];
+        private int first;
+        private int count;
+
+        private void prepare(Timeline timeline, int first, int last) {
+            this.first = first;
+            this.count = last - first;
+            for (int i = 0; i < count; i++) {
+                int state = timeline.state(first + i);
+                CanvasLayout.Phase phase = layout.phase(state);
+                int x = (region != null ? region[0] : phase.minX()) - index.originX();
+                int y = (region != null ? region[1] : phase.minY()) - index.originY();
+                int width = region != null ? region[2] : phase.width();
+                int height = region != null ? region[3] : phase.height();
+
+                Frame previous = frames[i];
+                boolean reuse = previous != null && previous.width() == width && previous.height() == height
+                    && originX[i] == x && originY[i] == y;
+                byte[] pixels = reuse ? previous.pixels() : new byte[width * height];
+                boolean[] dirtyTiles = reuse ? previous.dirtyTiles() : new boolean[Frame.tiles(width) * Frame.tiles(height)];
+                if (!reuse) {
+                    Arrays.fill(pixels, layout.background());
+                }
+                Arrays.fill(dirtyTiles, false);
+
+                frames[i] = new Frame(timeline.cutoff(first + i), state, width, height, pixels, layout.colorModel(state), dirtyTiles);
+                originX[i] = x;
+                originY[i] = y;
+            }
+        }
+    }
+
+    /**
+     * The history of a single tile, replayed frame by frame
+     */
+    private final class TileReplay {
+        private final int tileX;
+        private final int tileY;
+        private final TileIndex.Cursor cursor;
+        private final int[] modIndices;
+        private final int colorBase;
+        private final byte[] pixels = new byte[TileIndex.TileSize * TileIndex.TileSize];
+        private int nextMod;
+
+        private TileReplay(int tile, TileIndex.Cursor cursor, int[] modIndices) {
+            this.tileX = TileIndex.tileX(tile);
+            this.tileY = TileIndex.tileY(tile);
+            this.cursor = cursor;
+            this.modIndices = modIndices;
+            this.colorBase = layout.colorBase();
+            Arrays.fill(pixels, layout.background());
+        }
+
+        private Void render(Timeline timeline, Batch batch) throws IOException {
+            for (int i = 0; i < batch.count; i++) {
+                Frame frame = batch.frames[i];
+                int originX = batch.originX[i];
+                int originY = batch.originY[i];
+
+                // Place everything before the frame, and flag the tiles of the frame that changed
+                long until = timeline.record(batch.first + i);
+                long cutoff = timeline.cutoff(batch.first + i);
+                for (long record = cursor.record(); record < until; record = cursor.record()) {
+                    applyMods(timeline, frame, originX, originY, record, Long.MAX_VALUE);
+                    int offset = cursor.offset();
+                    byte color = (byte) (cursor.color() - colorBase);
+                    if (pixels[offset] != color) {
+                        pixels[offset] = color;
+                        int x = tileX + offset % TileIndex.TileSize - originX;
+                        int y = tileY + offset / TileIndex.TileSize - originY;
+                        if (x >= 0 && y >= 0 && x < frame.width() && y < frame.height()) {
+                            frame.dirtyTiles()[(y / Frame.TileSize) * frame.tilesX() + x / Frame.TileSize] = true;
+                        }
+                    }
+                    cursor.next();
+                }
+                applyMods(timeline, frame, originX, originY, until, cutoff);
+
+                copy(frame, originX, originY);
+            }
+            return null;
+        }
+
+        /**
+         * Applies the mods before a record, up to and including a timestamp, and flags the part of the frame they
+         * cover in this tile
+         */
+        private void applyMods(Timeline timeline, Frame frame, int originX, int originY, long record, long timestamp) {
+            while (nextMod < modIndices.length
+                && timeline.modRecord(modIndices[nextMod]) <= record
+                && mods.timestamp(modIndices[nextMod]) <= timestamp) {
+                Mod mod = mods.get(modIndices[nextMod++]);
+                int x = index.originX() + tileX;
+                int y = index.originY() + tileY;
+                Mods.fill(mod, (byte) (mod.getColor() - colorBase), pixels, x, y, TileIndex.TileSize, TileIndex.TileSize);
+
+                int fromX = Math.max(Math.max(mod.getMinX() - index.originX(), tileX), originX) - originX;
+                int toX = Math.min(Math.min(mod.getMaxX() - index.originX(), tileX + TileIndex.TileSize - 1), originX + frame.width() - 1) - originX;
+                int fromY = Math.max(Math.max(mod.getMinY() - index.originY(), tileY), originY) - originY;
+                int toY = Math.min(Math.min(mod.getMaxY() - index.originY(), tileY + TileIndex.TileSize - 1), originY + frame.height() - 1) - originY;
+                if (fromX > toX || fromY > toY) {
+                    continue;
+                }
+                for (int tile = fromY / Frame.TileSize; tile <= toY / Frame.TileSize; tile++) {
+                    int row = tile * frame.tilesX();
+                    Arrays.fill(frame.dirtyTiles(), row + fromX / Frame.TileSize, row + toX / Frame.TileSize + 1, true);
+                }
+            }
+        }
+
+        private void copy(Frame frame, int originX, int originY) {
+            int fromX = Math.max(tileX, originX);
+            int toX = Math.min(tileX + TileIndex.TileSize, originX + frame.width());
+            int fromY = Math.max(tileY, originY);
+            int toY = Math.min(tileY + TileIndex.TileSize, originY + frame.height());
+            if (fromX >= toX) {
+                return;
+            }
+            for (int y = fromY; y < toY; y++) {
+                System.arraycopy(
+                    pixels, (y - tileY) * TileIndex.TileSize + fromX - tileX,
+                    frame.pixels(), (y - originY) * frame.width() + fromX - originX,
+                    toX - fromX
+                );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * The frames a sequential render dumps: the cutoff of every frame, the record before which it's dumped, and the
+ * state of the canvas at that point. Also holds the record before which every mod is applied. Found by going
+ * through the placements once, without drawing them, or from the timeline in the tile index.
+ */
+final class Timeline {
+
+    private long[] cutoffs = new long[1024];
+    private long[] records = new long[1024];
+    private int[] states = new int[1024];
+    private int size;
+    private final long[] modRecords;
+
+    private Timeline(int mods) {
+        this.modRecords = new long[mods];
+    }
+
+    /**
+     * Follows the same rules as the sequential renderer: the first cutoff is the frame before the first placement,
+     * and a frame is dumped before the first placement past its cutoff.
+     */
+    static Timeline read(PlacementReader reader, Mods mods, long frameMillis, Year year) throws IOException {
+        Timeline timeline = new Timeline(mods.size());
+        Canvas shape = Canvas.forYear(year);
+        long[] state = {0, 0}; // Cutoff and record
+        int[] mod = {0};
+        reader.read((timestamp, user, x, y, color) -> {
+            if (state[0] == 0) {
+                state[0] = (timestamp / frameMillis) * frameMillis;
+            }
+            if (timestamp > state[0]) {
+                timeline.add(state[0], state[1], shape.state());
+                state[0] += frameMillis;
+            }
+            while (mod[0] < mods.size() && mods.timestamp(mod[0]) <= timestamp) {
+                timeline.modRecords[mod[0]++] = state[1];
+            }
+            shape.advance(timestamp, x, y);
+            state[1]++;
+        });
+        Arrays.fill(timeline.modRecords, mod[0], mods.size(), state[1]);
+        return timeline;
+    }
+
+    /**
+     * Finds the same frames from the placements per second in the tile index, so only the placements around mods
+     * are read. A frame is dumped before the first placement past its cutoff, but never before the same placement
+     * as the frame before it.
+     */
+    static Timeline read(TileIndex index, PlacementReader reader, Mods mods, long frameMillis) throws IOException {
+        if (frameMillis % 1000 != 0) {
+            throw new IllegalArgumentException("Frame interval must be whole seconds");
+        }
+        Timeline timeline = new Timeline(mods.size());
+        int records = index.records();
+        if (records > 0) {
+            long cutoff = Math.floorDiv(index.firstSecond() * 1000, frameMillis) * frameMillis;
+            long record = -1;
+            while (true) {
+                record = Math.max(record + 1, index.recordsUntil(cutoff / 1000));
+                if (record >= records) {
+                    break;
+                }
+                timeline.add(cutoff, record, index.state(record));
+                cutoff += frameMillis;
+            }
+        }
+
+        // Mods are applied before the first placement at or after them, which is in the second around them
+        for (int mod = 0; mod < mods.size(); mod++) {
+            long timestamp = mods.timestamp(mod);
+            long second = Math.floorDiv(timestamp, 1000);
+            long from = index.recordsUntil(second - 1);
+            long to = index.recordsUntil(second + 1);
+            long[] before = {from};
+            reader.read(from, to, timestamp - 1, (ts, user, x, y, color) -> before[0]++);
+            timeline.modRecords[mod] = before[0];
+        }
+        return timeline;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long cutoff(int frame) {
+        return cutoffs[frame];
+    }
+
+    /**
+     * Returns the number of placements in a frame, which is also the record before which it's dumped
+     */
+    long record(int frame) {
+        return records[frame];
+    }
+
+    int state(int frame) {
+        return states[frame];
+    }
+
+    /**
+     * Returns the record before which a mod is applied, which is the number of placements before it
+     */
+    long modRecord(int mod) {
+        return modRecords[mod];
+    }
+
+    private void add(long cutoff, long record, int state) {
+        if (size == cutoffs.length) {
+            cutoffs = Arrays.copyOf(cutoffs, size * 2);
+            records = Arrays.copyOf(records, size * 2);
+            states = Arrays.copyOf(states, size * 2);
+        }
+        cutoffs[size] = cutoff;
+        records[size] = record;
+        states[size] = state;
+        size++;
+    }
+
+}
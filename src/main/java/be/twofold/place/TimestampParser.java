@@ -0,0 +1,71 @@
+package be.twofold.place;
+
+import java.time.*;
+
+/**
+ * Parses UTC timestamps of the form {@code yyyy-MM-dd HH:mm:ss[.S[S[S]]] UTC} to epoch milliseconds.
+ * <p>
+ * All placements of a year fall within a few days, so the epoch milliseconds of every {@code yyyy-MM-dd HH} prefix
+ * are cached, and only minutes, seconds and the fraction are added up per line. Only the prefix goes through
+ * {@code java.time}, which also validates it. The cache is safe to share between threads, as its entries are
+ * immutable and a lost update only means the prefix is computed again.
+ */
+final class TimestampParser {
+
+    private static final int CacheSize = 256;
+
+    private final Hour[] cache = new Hour[CacheSize];
+
+    long parse(byte[] buffer, int start, int end) {
+        int year = Bytes.parseDigits(buffer, start, 4);
+        int month = Bytes.parseDigits(buffer, start + 5, 2);
+        int dayOfMonth = Bytes.parseDigits(buffer, start + 8, 2);
+        int hour = Bytes.parseDigits(buffer, start + 11, 2);
+        int minute = Bytes.parseDigits(buffer, start + 14, 2);
+        int second = Bytes.parseDigits(buffer, start + 17, 2);
+        if (minute > 59 || second > 59) {
+            throw new IllegalArgumentException("Invalid time: " + new String(buffer, start, end - start));
+        }
+
+        int key = ((year * 13 + month) * 32 + dayOfMonth) * 24 + hour;
+        int slot = key & (CacheSize - 1);
+        Hour cached = cache[slot];
+        if (cached == null || cached.key != key) {
+            long millis = LocalDateTime.of(year, month, dayOfMonth, hour, 0)
+                .toInstant(ZoneOffset.UTC)
+                .toEpochMilli();
+            cached = new Hour(key, millis);
+            cache[slot] = cached;
+        }
+
+        return cached.millis
+            + minute * 60_000L
+            + second * 1_000L
+            + parseMillis(buffer, start, end);
+    }
+
+    private static int parseMillis(byte[] buffer, int start, int end) {
+        if (buffer[start + 19] != '.') {
+            return 0;
+        }
+        int digits = Bytes.indexOf(buffer, start + 20, end, (byte) ' ') - (start + 20);
+        int fraction = Bytes.parseDigits(buffer, start + 20, digits);
+        return switch (digits) {
+            case 1 -> fraction * 100;
+            case 2 -> fraction * 10;
+            case 3 -> fraction;
+            default -> throw new IllegalArgumentException("Invalid fraction: " + new String(buffer, start, end - start));
+        };
+    }
+
+    private static final class Hour {
+        private final int key;
+        private final long millis;
+
+        private Hour(int key, long millis) {
+            this.key = key;
+            this.millis = millis;
+        }
+    }
+
+}
@@ -0,0 +1,221 @@
+package be.twofold.place;
+
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * Maps user hashes to dense ids, starting at 1.
+ * <p>
+ * Keys are stored back to back in a single {@code long[]}, zero padded to a fixed number of words, and the hash
+ * table itself only holds ids. Lookups decode the base64 user straight from the line bytes, without any allocation.
+ */
+final class UserDictionary {
+
+    private static final byte[] Base64Values = new byte[128];
+
+    static {
+        Arrays.fill(Base64Values, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            Base64Values[alphabet.charAt(i)] = (byte) i;
+        }
+        Base64Values['='] = 0;
+    }
+
+    private final int words;
+    private long[] keys;
+    private byte[] lengths;
+    private int[] table;
+    private int mask;
+    private int size;
+
+    /**
+     * @param keyBytes the maximum length of a decoded user hash
+     * @param capacity the number of users that is expected, the dictionary grows when more are added
+     */
+    UserDictionary(int keyBytes, int capacity) {
+        if (keyBytes > 255) {
+            throw new IllegalArgumentException("Keys can be at most 255 bytes");
+        }
+        this.words = (keyBytes + 7) / 8;
+        this.keys = new long[Math.multiplyExact(Math.max(capacity, 1), words)];
+        this.lengths = new byte[Math.max(capacity, 1)];
+        this.table = new int[tableSize(capacity)];
+        this.mask = table.length - 1;
+    }
+
+    static int decodedLength(byte[] buffer, int start, int end) {
+        int padding = 0;
+        while (end - padding > start && buffer[end - padding - 1] == '=') {
+            padding++;
+        }
+        return (end - start) / 4 * 3 - padding;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a base64 encoded user if it's not present yet, and returns its id
+     */
+    int add(byte[] buffer, int start, int end) {
+        checkLength(buffer, start, end);
+        int slot = find(buffer, start, end);
+        if (table[slot] != 0) {
+            return table[slot];
+        }
+        if (size == lengths.length) {
+            grow();
+            slot = find(buffer, start, end);
+        }
+
+        int id = ++size;
+        int length = decodedLength(buffer, start, end);
+        for (int w = 0; w < words; w++) {
+            keys[(id - 1) * words + w] = word(buffer, start, length, w);
+        }
+        lengths[id - 1] = (byte) length;
+        table[slot] = id;
+        return id;
+    }
+
+    /**
+     * Returns the id of a base64 encoded user
+     */
+    int get(byte[] buffer, int start, int end) {
+        checkLength(buffer, start, end);
+        int id = table[find(buffer, start, end)];
+        if (id == 0) {
+            throw new IllegalArgumentException("Unknown user: " + new String(buffer, start, end - start, StandardCharsets.ISO_8859_1));
+        }
+        return id;
+    }
+
+    /**
+     * Returns the decoded user hash of an id
+     */
+    byte[] key(int id) {
+        byte[] result = new byte[Byte.toUnsignedInt(lengths[id - 1])];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) (keys[(id - 1) * words + i / 8] >>> (56 - 8 * (i % 8)));
+        }
+        return result;
+    }
+
+    /**
+     * Compares the keys of two users as unsigned bytes, possibly across dictionaries with the same key size
+     */
+    static int compare(UserDictionary d1, int id1, UserDictionary d2, int id2) {
+        for (int w = 0; w < d1.words; w++) {
+            int result = Long.compareUnsigned(d1.keys[(id1 - 1) * d1.words + w], d2.keys[(id2 - 1) * d2.words + w]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(Byte.toUnsignedInt(d1.lengths[id1 - 1]), Byte.toUnsignedInt(d2.lengths[id2 - 1]));
+    }
+
+    private int find(byte[] buffer, int start, int end) {
+        int length = decodedLength(buffer, start, end);
+
+        long hash = 0;
+        for (int w = 0; w < words; w++) {
+            hash = mix(hash, word(buffer, start, length, w));
+        }
+
+        int slot = slot(hash);
+        while (true) {
+            int id = table[slot];
+            if (id == 0 || matches(id, buffer, start, length)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean matches(int id, byte[] buffer, int start, int length) {
+        if (Byte.toUnsignedInt(lengths[id - 1]) != length) {
+            return false;
+        }
+        int offset = (id - 1) * words;
+        for (int w = 0; w < words; w++) {
+            if (keys[offset + w] != word(buffer, start, length, w)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        int capacity = Math.addExact(lengths.length, lengths.length >> 1) + 1;
+        keys = Arrays.copyOf(keys, Math.multiplyExact(capacity, words));
+        lengths = Arrays.copyOf(lengths, capacity);
+        table = new int[tableSize(capacity)];
+        mask = table.length - 1;
+
+        for (int id = 1; id <= size; id++) {
+            long hash = 0;
+            for (int w = 0; w < words; w++) {
+                hash = mix(hash, keys[(id - 1) * words + w]);
+            }
+            int slot = slot(hash);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+    }
+
+    private void checkLength(byte[] buffer, int start, int end) {
+        if ((end - start) % 4 != 0 || decodedLength(buffer, start, end) > words * 8) {
+            throw new IllegalArgumentException("Invalid user: " + new String(buffer, start, end - start, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private static int tableSize(int capacity) {
+        // Keep the load factor under 2/3
+        return Integer.highestOneBit(Math.max(capacity * 3 / 2, 2) - 1) << 1;
+    }
+
+    private static long mix(long hash, long word) {
+        return (hash + word) * 0x9E3779B97F4A7C15L;
+    }
+
+    private int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Decodes the 8 bytes of word {@code w}, big endian and zero padded
+     */
+    private static long word(byte[] buffer, int start, int length, int w) {
+        long result = 0;
+        int from = w * 8;
+        int to = Math.min(from + 8, length);
+        for (int k = from; k < to; ) {
+            int group = k / 3;
+            int bits = decodeGroup(buffer, start + group * 4);
+            for (int j = k - group * 3; j < 3 && k < to; j++, k++) {
+                result |= (long) ((bits >>> (16 - 8 * j)) & 0xFF) << (56 - 8 * (k - from));
+            }
+        }
+        return result;
+    }
+
+    private static int decodeGroup(byte[] buffer, int offset) {
+        return value(buffer[offset]) << 18
+            | value(buffer[offset + 1]) << 12
+            | value(buffer[offset + 2]) << 6
+            | value(buffer[offset + 3]);
+    }
+
+    static int value(byte b) {
+        int value = b >= 0 ? Base64Values[b] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid base64 character: " + (char) (b & 0xFF));
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,11 @@
+package be.twofold.place;
+
+/**
+ * Resolves a base64 encoded user in a line to its id
+ */
+@FunctionalInterface
+interface UserIds {
+
+    int get(byte[] buffer, int start, int end);
+
+}
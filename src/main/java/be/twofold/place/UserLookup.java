@@ -0,0 +1,85 @@
+package be.twofold.place;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * Prints where some users placed what, from the user index, and draws what they placed over a transparent canvas,
+ * the last placement of any of them winning
+ */
+final class UserLookup {
+
+    private final Path sourceDirectory;
+    private final Path targetDirectory;
+    private final Year year;
+    private final PngEncoder encoder;
+
+    UserLookup(Path sourceDirectory, Path targetDirectory, Year year, Options options) {
+        this.sourceDirectory = Objects.requireNonNull(sourceDirectory);
+        this.targetDirectory = Objects.requireNonNull(targetDirectory);
+        this.year = Objects.requireNonNull(year);
+        this.encoder = new PngEncoder(
+            options.getInt("png-level", 1),
+            PngEncoder.Filter.parse(options.getString("png-filter", "none")),
+            options.getInt("png-chunks", Runtime.getRuntime().availableProcessors())
+        );
+    }
+
+    /**
+     * Looks up the users as they appear in users.txt, each of them once
+     */
+    void lookUp(List<String> users) throws IOException {
+        List<String> distinct = users.stream().distinct().toList();
+        int[] ids = UsersFile.ids(sourceDirectory.resolve(UsersFile.FileName), distinct);
+        History history;
+        try (GroupedIndex index = new GroupedIndex(sourceDirectory, GroupedIndex.Key.USER)) {
+            history = new History(Arrays.stream(ids).map(index::count).sum());
+            long start = System.nanoTime();
+            for (int id : ids) {
+                index.read(id, history);
+            }
+            long micros = (System.nanoTime() - start) / 1_000;
+            System.out.println("Found " + history.size() + " placements by " + ids.length + " users in " + micros + "us");
+        }
+        history.sort();
+        history.print(sourceDirectory, year);
+        drawOverlay(history);
+    }
+
+    private void drawOverlay(History history) throws IOException {
+        CanvasLayout layout = CanvasLayout.forYear(year);
+        CanvasLayout.Phase bounds = layout.bounds();
+        byte transparent = (byte) bounds.colors();
+        byte[] pixels = new byte[bounds.width() * bounds.height()];
+        Arrays.fill(pixels, transparent);
+        for (int i = 0; i < history.size(); i++) {
+            pixels[(history.y(i) - bounds.minY()) * bounds.width() + (history.x(i) - bounds.minX())] =
+                (byte) (history.color(i) - layout.colorBase());
+        }
+
+        Path path = targetDirectory.resolve("overlay.png");
+        encoder.write(pixels, bounds.width(), bounds.height(), overlayColorModel(layout), path);
+        System.out.println("Wrote the overlay to " + path);
+    }
+
+    /**
+     * Returns the palette of the final canvas, with a transparent color after it
+     */
+    private static IndexColorModel overlayColorModel(CanvasLayout layout) {
+        IndexColorModel colorModel = layout.colorModel(layout.states());
+        int size = colorModel.getMapSize();
+        byte[] r = new byte[size + 1];
+        byte[] g = new byte[size + 1];
+        byte[] b = new byte[size + 1];
+        byte[] a = new byte[size + 1];
+        colorModel.getReds(r);
+        colorModel.getGreens(g);
+        colorModel.getBlues(b);
+        Arrays.fill(a, 0, size, (byte) 0xFF);
+        return new IndexColorModel(8, size + 1, r, g, b, a);
+    }
+
+}
@@ -0,0 +1,72 @@
+package be.twofold.place;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.List;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * Looks up users in users.txt, which has the base64 encoded user of every id on line {@code id}, starting at 1
+ */
+final class UsersFile {
+
+    static final String FileName = "users.txt";
+
+    private UsersFile() {
+        throw new UnsupportedOperationException();
+    }
+
+    static int count(Path path) throws IOException {
+        try (Stream<String> lines = Files.lines(path)) {
+            return Math.toIntExact(lines.count());
+        }
+    }
+
+    /**
+     * Returns the users of some ids, reading until all of them are found. Ids that aren't there are left out.
+     */
+    static Map<Integer, String> users(Path path, int[] ids) throws IOException {
+        Set<Integer> wanted = Arrays.stream(ids).boxed().collect(Collectors.toSet());
+        Map<Integer, String> users = new HashMap<>();
+        if (wanted.isEmpty() || !Files.exists(path)) {
+            return users;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            for (int id = 1; users.size() < wanted.size() && (line = reader.readLine()) != null; id++) {
+                if (wanted.contains(id)) {
+                    users.put(id, line);
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Returns the ids of some users, in the same order, reading until all of them are found
+     */
+    static int[] ids(Path path, List<String> users) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        Set<String> wanted = new HashSet<>(users);
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            for (int id = 1; ids.size() < wanted.size() && (line = reader.readLine()) != null; id++) {
+                if (wanted.contains(line)) {
+                    ids.put(line, id);
+                }
+            }
+        }
+
+        int[] result = new int[users.size()];
+        for (int i = 0; i < result.length; i++) {
+            Integer id = ids.get(users.get(i));
+            if (id == null) {
+                throw new IllegalArgumentException("User is not in " + path.getFileName() + ": " + users.get(i));
+            }
+            result[i] = id;
+        }
+        return result;
+    }
+
+}
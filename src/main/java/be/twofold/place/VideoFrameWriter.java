@@ -0,0 +1,187 @@
+package be.twofold.place;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Streams frames as uncompressed video, for an external encoder to pick up from a file or a pipe.
+ * <p>
+ * Frames are either YUV4MPEG2 with full resolution chroma, or bare rgb24. Every frame has the same size, smaller
+ * canvases are padded with black at the right and bottom, and larger ones are cropped. The rendering thread only
+ * copies the palette indices, converting and writing happens on a background thread.
+ */
+final class VideoFrameWriter implements FrameWriter {
+
+    private static final int FramesInFlight = 4;
+    private static final byte Padding = (byte) 0xFF;
+    private static final byte[] FrameHeader = "FRAME\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final boolean yuv;
+    private final int width;
+    private final int height;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(FramesInFlight);
+    private volatile Throwable failure;
+    private int frames;
+
+    // Owned by the executor
+    private final byte[] output;
+    private IndexColorModel lastColorModel;
+    private final byte[][] lookup = new byte[3][256];
+
+    VideoFrameWriter(FrameFormat format, Path directory, Year year, Options options) throws IOException {
+        this.yuv = format == FrameFormat.Y4M;
+
+        String size = options.getString("video-size", defaultSize(year));
+        int separator = size.indexOf('x');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Video size must look like 2000x2000: " + size);
+        }
+        this.width = Integer.parseInt(size.substring(0, separator));
+        this.height = Integer.parseInt(size.substring(separator + 1));
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Video size must be positive: " + size);
+        }
+        this.output = new byte[Math.multiplyExact(width * height, 3)];
+        for (int i = 0; i < FramesInFlight; i++) {
+            buffers.add(new byte[width * height]);
+        }
+
+        String target = options.getString("video-output", directory.resolve(yuv ? "place.y4m" : "place.rgb").toString());
+        if ("-".equals(target)) {
+            // The video goes to standard output, so keep the progress messages out of it
+            this.out = new FileOutputStream(FileDescriptor.out);
+            System.setOut(System.err);
+        } else {
+            this.out = Files.newOutputStream(Path.of(target));
+        }
+
+        if (yuv) {
+            int fps = options.getInt("fps", 30);
+            String header = "YUV4MPEG2 W" + width + " H" + height + " F" + fps + ":1 Ip A1:1 C444\n";
+            out.write(header.getBytes(StandardCharsets.US_ASCII));
+        }
+        System.out.println("Writing " + (yuv ? "y4m" : "rgb24") + " video of " + width + "x" + height);
+    }
+
+    private static String defaultSize(Year year) {
+        CanvasLayout.Phase bounds = CanvasLayout.forYear(year).bounds();
+        return bounds.width() + "x" + bounds.height();
+    }
+
+    @Override
+    public void write(Frame frame) throws IOException {
+        checkFailure();
+
+        byte[] pixels;
+        try {
+            pixels = buffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        // Copy the visible part of the canvas, padding the rest with a color that is never used
+        int copyWidth = Math.min(width, frame.width());
+        int copyHeight = Math.min(height, frame.height());
+        for (int y = 0; y < copyHeight; y++) {
+            System.arraycopy(frame.pixels(), y * frame.width(), pixels, y * width, copyWidth);
+            Arrays.fill(pixels, y * width + copyWidth, (y + 1) * width, Padding);
+        }
+        Arrays.fill(pixels, copyHeight * width, pixels.length, Padding);
+        IndexColorModel colorModel = frame.colorModel();
+
+        System.out.println("Writing frame " + frames++ + ": " + frame.name());
+        executor.execute(() -> {
+            try {
+                if (failure == null) {
+                    Metrics.Span span = Metrics.start("video");
+                    convert(pixels, colorModel);
+                    if (yuv) {
+                        out.write(FrameHeader);
+                    }
+                    out.write(output, 0, width * height * 3);
+                    span.end(1, (yuv ? FrameHeader.length : 0) + width * height * 3L);
+                }
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                buffers.add(pixels);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            out.close();
+        }
+        checkFailure();
+    }
+
+    private void convert(byte[] pixels, IndexColorModel colorModel) {
+        if (colorModel != lastColorModel) {
+            updateLookup(colorModel);
+            lastColorModel = colorModel;
+        }
+        int size = width * height;
+        byte[] c0 = lookup[0];
+        byte[] c1 = lookup[1];
+        byte[] c2 = lookup[2];
+        if (yuv) {
+            // Planar, all of Y, then all of U and V
+            for (int i = 0; i < size; i++) {
+                int index = pixels[i] & 0xFF;
+                output[i] = c0[index];
+                output[size + i] = c1[index];
+                output[2 * size + i] = c2[index];
+            }
+        } else {
+            for (int i = 0, o = 0; i < size; i++, o += 3) {
+                int index = pixels[i] & 0xFF;
+                output[o] = c0[index];
+                output[o + 1] = c1[index];
+                output[o + 2] = c2[index];
+            }
+        }
+    }
+
+    private void updateLookup(IndexColorModel colorModel) {
+        for (int i = 0; i < 256; i++) {
+            // Indices outside of the palette, including the padding, come out black
+            int rgb = i < colorModel.getMapSize() ? colorModel.getRGB(i) : 0;
+            int r = (rgb >> 16) & 0xFF;
+            int g = (rgb >> 8) & 0xFF;
+            int b = rgb & 0xFF;
+            if (yuv) {
+                // BT.601, limited range
+                lookup[0][i] = (byte) Math.round(16 + (65.481 * r + 128.553 * g + 24.966 * b) / 255);
+                lookup[1][i] = (byte) Math.round(128 + (-37.797 * r - 74.203 * g + 112.0 * b) / 255);
+                lookup[2][i] = (byte) Math.round(128 + (112.0 * r - 93.786 * g - 18.214 * b) / 255);
+            } else {
+                lookup[0][i] = (byte) r;
+                lookup[1][i] = (byte) g;
+                lookup[2][i] = (byte) b;
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Could not write video", failure);
+        }
+    }
+
+}
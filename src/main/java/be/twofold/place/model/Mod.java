@@ -0,0 +1,154 @@
+package be.twofold.place.model;
+
+/**
+ * A mod filling part of the canvas with a single color: a rectangle, or a circle given by its bounding square.
+ * The bounds are inclusive.
+ */
+public final class Mod implements Comparable<Mod> {
+    private final long timestamp;
+    private final Shape shape;
+    private final short minX;
+    private final short minY;
+    private final short maxX;
+    private final short maxY;
+    private final int color;
+
+    public Mod(long timestamp, Shape shape, short minX, short minY, short maxX, short maxY, int color) {
+        if (minX > maxX || minY > maxY) {
+            throw new IllegalArgumentException("Mod can't be empty");
+        }
+        if (shape == Shape.CIRCLE && maxX - minX != maxY - minY) {
+            throw new IllegalArgumentException("Circle must have a square bounding box");
+        }
+        this.timestamp = timestamp;
+        this.shape = shape;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.color = color;
+    }
+
+    public static Mod rectangle(long timestamp, int x1, int y1, int x2, int y2, int color) {
+        return new Mod(timestamp, Shape.RECTANGLE,
+            (short) Math.min(x1, x2), (short) Math.min(y1, y2),
+            (short) Math.max(x1, x2), (short) Math.max(y1, y2),
+            color);
+    }
+
+    public static Mod circle(long timestamp, int x, int y, int radius, int color) {
+        return new Mod(timestamp, Shape.CIRCLE,
+            (short) (x - radius), (short) (y - radius),
+            (short) (x + radius), (short) (y + radius),
+            color);
+    }
+
+    /**
+     * Parses the form written by {@link #toString()}
+     */
+    public static Mod parse(String s) {
+        String[] parts = s.split(",");
+        if (parts.length != 7) {
+            throw new IllegalArgumentException("Mod must look like timestamp,shape,minX,minY,maxX,maxY,color: " + s);
+        }
+        return new Mod(
+            Long.parseLong(parts[0]),
+            Shape.parse(parts[1]),
+            Short.parseShort(parts[2]),
+            Short.parseShort(parts[3]),
+            Short.parseShort(parts[4]),
+            Short.parseShort(parts[5]),
+            Integer.parseInt(parts[6])
+        );
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    /**
+     * Orders by timestamp, breaking ties on the remaining fields, so every sort gives the same output
+     */
+    @Override
+    public int compareTo(Mod o) {
+        int result = Long.compare(timestamp, o.timestamp);
+        if (result != 0) return result;
+        result = shape.compareTo(o.shape);
+        if (result != 0) return result;
+        result = Short.compare(minX, o.minX);
+        if (result != 0) return result;
+        result = Short.compare(minY, o.minY);
+        if (result != 0) return result;
+        result = Short.compare(maxX, o.maxX);
+        if (result != 0) return result;
+        result = Short.compare(maxY, o.maxY);
+        if (result != 0) return result;
+        return Integer.compare(color, o.color);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof Mod)) return false;
+
+        Mod mod = (Mod) obj;
+        return timestamp == mod.timestamp
+            && shape == mod.shape
+            && minX == mod.minX
+            && minY == mod.minY
+            && maxX == mod.maxX
+            && maxY == mod.maxY
+            && color == mod.color;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        result = 31 * result + Long.hashCode(timestamp);
+        result = 31 * result + shape.ordinal();
+        result = 31 * result + Short.hashCode(minX);
+        result = 31 * result + Short.hashCode(minY);
+        result = 31 * result + Short.hashCode(maxX);
+        result = 31 * result + Short.hashCode(maxY);
+        result = 31 * result + Integer.hashCode(color);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return timestamp + "," + shape.name().toLowerCase() + "," + minX + "," + minY + "," + maxX + "," + maxY + "," + color;
+    }
+
+    public enum Shape {
+        RECTANGLE,
+        CIRCLE;
+
+        static Shape parse(String s) {
+            return valueOf(s.toUpperCase());
+        }
+    }
+}
@@ -53,9 +53,20 @@ public final class Placement implements Comparable<Placement> {
         return color;
     }
 
+    /**
+     * Orders by timestamp, breaking ties on the remaining fields, so every sort gives the same output
+     */
     @Override
     public int compareTo(Placement o) {
-        return Long.compare(timestamp, o.timestamp);
+        int result = Long.compare(timestamp, o.timestamp);
+        if (result != 0) return result;
+        result = Integer.compare(user, o.user);
+        if (result != 0) return result;
+        result = Short.compare(x, o.x);
+        if (result != 0) return result;
+        result = Short.compare(y, o.y);
+        if (result != 0) return result;
+        return Integer.compare(color, o.color);
     }
 
     @Override
@@ -1,3 +1,5 @@
 module place {
     requires java.desktop;
+    requires jdk.jfr;
+    requires jdk.management;
 }
@@ -0,0 +1,118 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryPlacementWriterTest {
+
+    // Two full blocks and part of a third
+    private static final int Count = 2 * BinaryHeader.BlockSize + 100;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsAcrossBlocks() throws IOException {
+        List<Placement> placements = placements();
+        Path path = write(placements);
+
+        assertEquals(Count, new BinaryPlacementReader(path).count());
+        assertEquals(placements, read(path, 0, Long.MAX_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    void roundTripsBatches() throws IOException {
+        List<Placement> placements = placements();
+        Path path = directory.resolve("placements.bin");
+        try (BinaryPlacementWriter writer = new BinaryPlacementWriter(path, 2023)) {
+            PlacementBatch batch = new PlacementBatch(1000);
+            for (Placement placement : placements) {
+                batch.add(placement);
+                if (batch.isFull()) {
+                    writer.write(batch);
+                    batch.clear();
+                }
+            }
+            writer.write(batch);
+        }
+
+        List<Placement> actual = new ArrayList<>();
+        new BinaryPlacementReader(path).readBatches(batch -> {
+            for (int i = 0; i < batch.size(); i++) {
+                actual.add(batch.placement(i));
+            }
+        });
+        assertEquals(placements, actual);
+    }
+
+    @Test
+    void readsRangesAcrossABlockBoundary() throws IOException {
+        List<Placement> placements = placements();
+        Path path = write(placements);
+
+        int from = BinaryHeader.BlockSize - 10;
+        int to = BinaryHeader.BlockSize + 10;
+        assertEquals(placements.subList(from, to), read(path, from, to, Long.MAX_VALUE));
+    }
+
+    @Test
+    void readsUntilATimestamp() throws IOException {
+        List<Placement> placements = placements();
+        Path path = write(placements);
+
+        long until = placements.get(BinaryHeader.BlockSize + 50).getTimestamp();
+        List<Placement> expected = placements.stream()
+            .filter(placement -> placement.getTimestamp() <= until)
+            .toList();
+        assertEquals(expected, read(path, 0, Long.MAX_VALUE, until));
+    }
+
+    @Test
+    void rejectsPlacementsOutOfOrder() throws IOException {
+        try (BinaryPlacementWriter writer = new BinaryPlacementWriter(directory.resolve("placements.bin"), 2023)) {
+            writer.write(new Placement(2000, 1, (short) 0, (short) 0, 0));
+            assertThrows(IllegalArgumentException.class, () -> writer.write(new Placement(1000, 1, (short) 0, (short) 0, 0)));
+        }
+    }
+
+    private Path write(List<Placement> placements) throws IOException {
+        Path path = directory.resolve("placements.bin");
+        try (BinaryPlacementWriter writer = new BinaryPlacementWriter(path, 2023)) {
+            for (Placement placement : placements) {
+                writer.write(placement);
+            }
+        }
+        return path;
+    }
+
+    private static List<Placement> read(Path path, long fromRecord, long toRecord, long untilTimestamp) throws IOException {
+        List<Placement> placements = new ArrayList<>();
+        new BinaryPlacementReader(path).read(fromRecord, toRecord, untilTimestamp, (timestamp, user, x, y, color) ->
+            placements.add(new Placement(timestamp, user, (short) x, (short) y, color)));
+        return placements;
+    }
+
+    /**
+     * Placements on a 2023 canvas, which reaches into negative coordinates, with some sharing a timestamp
+     */
+    private static List<Placement> placements() {
+        Random random = new Random(2023);
+        List<Placement> placements = new ArrayList<>();
+        long timestamp = 1_689_858_000_000L;
+        for (int i = 0; i < Count; i++) {
+            timestamp += random.nextInt(3);
+            short x = (short) (random.nextInt(3000) - 1500);
+            short y = (short) (random.nextInt(2000) - 1000);
+            placements.add(new Placement(timestamp, 1 + random.nextInt(500), x, y, random.nextInt(32)));
+        }
+        return placements;
+    }
+
+}
@@ -0,0 +1,57 @@
+package be.twofold.place;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.charset.*;
+import java.util.*;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentUserDictionaryTest {
+
+    @Test
+    void sortsIdsByTheirKeys() {
+        Random random = new Random(6);
+        ConcurrentUserDictionary dictionary = new ConcurrentUserDictionary(16);
+        Map<Integer, byte[]> keys = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            byte[] key = new byte[1 + random.nextInt(16)];
+            random.nextBytes(key);
+            byte[] encoded = Base64.getEncoder().encode(key);
+            keys.put(dictionary.intern(encoded, 0, encoded.length), key);
+        }
+
+        int[] ids = dictionary.sortedIds();
+        assertEquals(keys.size(), ids.length);
+        assertEquals(keys.keySet(), IntStream.of(ids).boxed().collect(Collectors.toSet()));
+        for (int i = 1; i < ids.length; i++) {
+            assertTrue(Arrays.compareUnsigned(keys.get(ids[i - 1]), keys.get(ids[i])) < 0);
+        }
+        for (int id : ids) {
+            assertArrayEquals(keys.get(id), dictionary.key(id));
+        }
+    }
+
+    @Test
+    void internsAUserOnce() {
+        ConcurrentUserDictionary dictionary = new ConcurrentUserDictionary(16);
+        byte[] user = "AbCdEfGh".getBytes(StandardCharsets.US_ASCII);
+        int id = dictionary.intern(user, 0, user.length);
+
+        assertEquals(id, dictionary.intern(user.clone(), 0, user.length));
+        assertEquals(1, dictionary.size());
+    }
+
+    @Test
+    void looksUpKeysOnlyOnceFrozen() {
+        ConcurrentUserDictionary dictionary = new ConcurrentUserDictionary(16);
+        byte[] user = "AbCdEfGh".getBytes(StandardCharsets.US_ASCII);
+        int id = dictionary.intern(user, 0, user.length);
+
+        assertThrows(IllegalStateException.class, () -> dictionary.key(id));
+        dictionary.freeze();
+        assertArrayEquals(Base64.getDecoder().decode(user), dictionary.key(id));
+    }
+
+}
@@ -0,0 +1,123 @@
+package be.twofold.place;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeltaFrameWriterTest {
+
+    // Not a multiple of the tile size, so the last column and row of tiles are clipped
+    private static final int Width = 150;
+    private static final int Height = 100;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsEveryFrameBack() throws IOException {
+        List<Frame> frames = frames();
+        write(frames);
+
+        try (DeltaFrameReader reader = new DeltaFrameReader(directory)) {
+            assertEquals(frames.size(), reader.size());
+            for (int i = 0; i < frames.size(); i++) {
+                assertFrame(frames.get(i), reader.read(i));
+            }
+        }
+    }
+
+    @Test
+    void reconstructsAFrameBetweenKeyframes() throws IOException {
+        List<Frame> frames = frames();
+        write(frames);
+
+        // Frames 0 and 4 are keyframes, so these are rebuilt from a keyframe, or from the frame read before
+        try (DeltaFrameReader reader = new DeltaFrameReader(directory)) {
+            assertFrame(frames.get(6), reader.read(6));
+            assertFrame(frames.get(2), reader.read(2));
+            assertFrame(frames.get(3), reader.read(3));
+            assertFrame(frames.get(7), reader.read(7));
+        }
+    }
+
+    @Test
+    void startsANewStateWithAKeyframe() throws IOException {
+        List<Frame> frames = new ArrayList<>(frames());
+        byte[] pixels = new byte[40 * 30];
+        Arrays.fill(pixels, (byte) 1);
+        frames.add(new Frame(cutoff(frames.size()), 1, 40, 30, pixels, colorModel(), new boolean[1]));
+        write(frames);
+
+        try (DeltaFrameReader reader = new DeltaFrameReader(directory)) {
+            assertFrame(frames.get(frames.size() - 1), reader.read(frames.size() - 1));
+            assertFrame(frames.get(5), reader.read(5));
+        }
+    }
+
+    @Test
+    void findsFramesByCutoff() throws IOException {
+        List<Frame> frames = frames();
+        write(frames);
+
+        try (DeltaFrameReader reader = new DeltaFrameReader(directory)) {
+            assertEquals(-1, reader.find(cutoff(0) - 1));
+            assertEquals(0, reader.find(cutoff(0)));
+            assertEquals(4, reader.find(cutoff(5) - 1));
+            assertEquals(frames.size() - 1, reader.find(Long.MAX_VALUE));
+        }
+    }
+
+    private void write(List<Frame> frames) throws IOException {
+        try (DeltaFrameWriter writer = new DeltaFrameWriter(directory, Options.parse(List.of("--keyframe-interval=4")))) {
+            for (Frame frame : frames) {
+                writer.write(frame);
+            }
+        }
+    }
+
+    private static void assertFrame(Frame expected, Frame actual) {
+        assertEquals(expected.cutoff(), actual.cutoff());
+        assertEquals(expected.state(), actual.state());
+        assertEquals(expected.width(), actual.width());
+        assertEquals(expected.height(), actual.height());
+        assertEquals(expected.colorModel().getMapSize(), actual.colorModel().getMapSize());
+        assertArrayEquals(expected.pixels(), Arrays.copyOf(actual.pixels(), expected.width() * expected.height()));
+    }
+
+    /**
+     * Frames where a few pixels change every time, with the tiles they are in flagged
+     */
+    private static List<Frame> frames() {
+        Random random = new Random(12);
+        int tilesX = Frame.tiles(Width);
+        byte[] pixels = new byte[Width * Height];
+        List<Frame> frames = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            boolean[] dirty = new boolean[tilesX * Frame.tiles(Height)];
+            for (int change = 0; change < (i == 0 ? Width * Height : 20); change++) {
+                int x = random.nextInt(Width);
+                int y = random.nextInt(Height);
+                pixels[y * Width + x] = (byte) random.nextInt(4);
+                dirty[y / Frame.TileSize * tilesX + x / Frame.TileSize] = true;
+            }
+            frames.add(new Frame(cutoff(i), 0, Width, Height, pixels.clone(), colorModel(), dirty));
+        }
+        return frames;
+    }
+
+    private static long cutoff(int frame) {
+        return 1_648_817_050_000L + frame * 300_000L;
+    }
+
+    private static IndexColorModel colorModel() {
+        byte[] values = {0, (byte) 0x55, (byte) 0xAA, (byte) 0xFF};
+        return new IndexColorModel(8, 4, values, values, values);
+    }
+
+}
@@ -0,0 +1,83 @@
+package be.twofold.place;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExternalSorterTest {
+
+    private static final int Count = 20_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesTheSameBytesAsTheInMemorySort() throws IOException {
+        List<PlacementBatch> batches = batches();
+
+        Path memory = directory.resolve("memory.bin");
+        PlacementColumns columns = new PlacementColumns();
+        batches.forEach(columns::addAll);
+        int[] order = new RadixSorter(2).sort(columns);
+        try (PlacementWriter writer = new BinaryPlacementWriter(memory, 2023)) {
+            columns.forEachBatch(order, new PlacementBatch(), writer::write);
+        }
+
+        Path external = directory.resolve("external.bin");
+        try (ExternalSorter sorter = new ExternalSorter(directory, memoryForChunks(1500));
+             PlacementWriter writer = new BinaryPlacementWriter(external, 2023)) {
+            batches.forEach(sorter::addAll);
+            sorter.writeTo(writer);
+        }
+
+        assertEquals(Count, new BinaryPlacementReader(external).count());
+        assertEquals(-1, Files.mismatch(memory, external));
+    }
+
+    @Test
+    void removesItsRuns() throws IOException {
+        try (ExternalSorter sorter = new ExternalSorter(directory, memoryForChunks(1500));
+             PlacementWriter writer = new BinaryPlacementWriter(directory.resolve("external.bin"), 2023)) {
+            batches().forEach(sorter::addAll);
+            sorter.writeTo(writer);
+        }
+
+        try (var paths = Files.list(directory)) {
+            assertEquals(List.of(directory.resolve("external.bin")), paths.toList());
+        }
+    }
+
+    /**
+     * The memory for chunks of about the given number of placements, like the sorter computes its chunk size
+     */
+    private static long memoryForChunks(int placements) {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        return (long) placements * (17 + 4 + 4 + 1) * (threads + 1);
+    }
+
+    /**
+     * Placements out of order, with ties on the timestamp, large users and negative coordinates
+     */
+    private static List<PlacementBatch> batches() {
+        Random random = new Random(3);
+        List<PlacementBatch> batches = new ArrayList<>();
+        PlacementBatch batch = new PlacementBatch(700);
+        for (int i = 0; i < Count; i++) {
+            long timestamp = 1_689_858_000_000L + random.nextInt(5000);
+            int user = random.nextBoolean() ? 1 + random.nextInt(10) : random.nextInt(Integer.MAX_VALUE);
+            batch.add(timestamp, user, random.nextInt(3000) - 1500, random.nextInt(2000) - 1000, random.nextInt(32));
+            if (batch.isFull()) {
+                batches.add(batch);
+                batch = new PlacementBatch(700);
+            }
+        }
+        batches.add(batch);
+        return batches;
+    }
+
+}
@@ -0,0 +1,103 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupedIndexTest {
+
+    private static final int Users = 30;
+    // Like a 2023 canvas, around the origin
+    private static final CanvasLayout.Phase Bounds = new CanvasLayout.Phase(-20, -15, 19, 14, 32, 0);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsThePlacementsOfAPixel() throws IOException {
+        List<Placement> placements = placements();
+        PlacementReader reader = write(placements);
+        new GroupedIndexBuilder(reader, directory, GroupedIndex.Key.PIXEL, Bounds, Users, 3).build();
+
+        try (GroupedIndex index = new GroupedIndex(directory, GroupedIndex.Key.PIXEL)) {
+            for (int y = Bounds.minY(); y <= Bounds.maxY(); y++) {
+                for (int x = Bounds.minX(); x <= Bounds.maxX(); x++) {
+                    int px = x;
+                    int py = y;
+                    List<Placement> expected = placements.stream()
+                        .filter(placement -> placement.getX() == px && placement.getY() == py)
+                        .toList();
+                    int group = index.pixel(x, y);
+                    assertEquals(expected.size(), index.count(group));
+                    assertEquals(expected, read(index, group));
+                }
+            }
+            assertThrows(IllegalArgumentException.class, () -> index.pixel(Bounds.maxX() + 1, 0));
+        }
+    }
+
+    @Test
+    void readsThePlacementsOfAUser() throws IOException {
+        List<Placement> placements = placements();
+        PlacementReader reader = write(placements);
+        new GroupedIndexBuilder(reader, directory, GroupedIndex.Key.USER, Bounds, Users, 3).build();
+
+        try (GroupedIndex index = new GroupedIndex(directory, GroupedIndex.Key.USER)) {
+            for (int user = 1; user <= Users; user++) {
+                int u = user;
+                List<Placement> expected = placements.stream()
+                    .filter(placement -> placement.getUser() == u)
+                    .toList();
+                assertEquals(expected.size(), index.count(user));
+                assertEquals(expected, read(index, user));
+            }
+            assertThrows(IllegalArgumentException.class, () -> index.count(Users + 1));
+        }
+    }
+
+    @Test
+    void rejectsAnIndexByTheOtherKey() throws IOException {
+        PlacementReader reader = write(placements());
+        new GroupedIndexBuilder(reader, directory, GroupedIndex.Key.USER, Bounds, Users, 1).build();
+        Files.move(directory.resolve(GroupedIndex.Key.USER.fileName()), directory.resolve(GroupedIndex.Key.PIXEL.fileName()));
+
+        assertThrows(IOException.class, () -> new GroupedIndex(directory, GroupedIndex.Key.PIXEL));
+    }
+
+    private PlacementReader write(List<Placement> placements) throws IOException {
+        Path path = directory.resolve("placements.bin");
+        try (BinaryPlacementWriter writer = new BinaryPlacementWriter(path, 2023)) {
+            for (Placement placement : placements) {
+                writer.write(placement);
+            }
+        }
+        return new BinaryPlacementReader(path);
+    }
+
+    private static List<Placement> read(GroupedIndex index, int group) {
+        List<Placement> placements = new ArrayList<>();
+        index.read(group, (timestamp, user, x, y, color) ->
+            placements.add(new Placement(timestamp, user, (short) x, (short) y, color)));
+        return placements;
+    }
+
+    private static List<Placement> placements() {
+        Random random = new Random(22);
+        List<Placement> placements = new ArrayList<>();
+        long timestamp = 1_689_858_000_000L;
+        for (int i = 0; i < 10_000; i++) {
+            timestamp += random.nextInt(2000);
+            short x = (short) (Bounds.minX() + random.nextInt(Bounds.width()));
+            short y = (short) (Bounds.minY() + random.nextInt(Bounds.height()));
+            placements.add(new Placement(timestamp, 1 + random.nextInt(Users), x, y, random.nextInt(32)));
+        }
+        return placements;
+    }
+
+}
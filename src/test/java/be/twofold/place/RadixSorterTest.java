@@ -0,0 +1,74 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RadixSorterTest {
+
+    @Test
+    void sortsLikePlacements() {
+        Random random = new Random(20);
+        List<Placement> placements = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            // Few timestamps, users and pixels, so there are many ties to break on the other fields
+            long timestamp = 1_648_800_000_000L + random.nextInt(200) * 1_000_000L;
+            int user = random.nextInt(20);
+            short x = (short) (random.nextInt(40) - 20);
+            short y = (short) (random.nextInt(40) - 20);
+            placements.add(new Placement(timestamp, user, x, y, random.nextInt(32)));
+        }
+
+        assertSorts(placements, 1);
+        assertSorts(placements, 4);
+    }
+
+    @Test
+    void sortsTheFullRangeOfEveryField() {
+        List<Placement> placements = List.of(
+            new Placement(Long.MAX_VALUE / 2, 1, (short) 0, (short) 0, 0),
+            new Placement(0, Integer.MAX_VALUE, Short.MAX_VALUE, Short.MAX_VALUE, 255),
+            new Placement(0, Integer.MAX_VALUE, Short.MIN_VALUE, Short.MAX_VALUE, 255),
+            new Placement(0, Integer.MAX_VALUE, Short.MIN_VALUE, Short.MIN_VALUE, 255),
+            new Placement(0, Integer.MAX_VALUE, Short.MIN_VALUE, Short.MIN_VALUE, 0),
+            new Placement(0, 0, (short) -1, (short) 1, 128),
+            new Placement(0, 0, (short) 1, (short) -1, 127)
+        );
+
+        assertSorts(placements, 1);
+        assertSorts(placements, 3);
+    }
+
+    @Test
+    void sortsEmptyAndSingleRows() {
+        assertSorts(List.of(), 2);
+        assertSorts(List.of(new Placement(5, 1, (short) -3, (short) 4, 2)), 2);
+    }
+
+    private static void assertSorts(List<Placement> placements, int threads) {
+        PlacementColumns columns = new PlacementColumns();
+        PlacementBatch batch = new PlacementBatch();
+        for (Placement placement : placements) {
+            batch.add(placement);
+            if (batch.isFull()) {
+                columns.addAll(batch);
+                batch.clear();
+            }
+        }
+        columns.addAll(batch);
+
+        int[] order = new RadixSorter(threads).sort(columns);
+        List<Placement> actual = new ArrayList<>();
+        for (int row : order) {
+            actual.add(new Placement(columns.timestamp(row), columns.user(row), columns.x(row), columns.y(row), columns.color(row)));
+        }
+
+        List<Placement> expected = new ArrayList<>(placements);
+        Collections.sort(expected);
+        assertEquals(expected, actual);
+    }
+
+}
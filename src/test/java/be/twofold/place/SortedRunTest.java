@@ -0,0 +1,97 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SortedRunTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void mergesRunsInOrder() throws IOException {
+        Random random = new Random(24);
+        List<Placement> all = new ArrayList<>();
+        List<Path> runs = new ArrayList<>();
+        for (int run = 0; run < 5; run++) {
+            List<Placement> placements = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) {
+                long timestamp = 1_689_858_000_000L + random.nextInt(100_000);
+                // The full range of users and coordinates, for the variable length and zigzag encoding
+                int user = random.nextInt(4) == 0 ? Integer.MAX_VALUE - random.nextInt(10) : random.nextInt(100);
+                short x = (short) (random.nextInt(4) == 0 ? Short.MIN_VALUE + random.nextInt(10) : random.nextInt(3000) - 1500);
+                short y = (short) (random.nextInt(4) == 0 ? Short.MAX_VALUE - random.nextInt(10) : random.nextInt(2000) - 1000);
+                placements.add(new Placement(timestamp, user, x, y, random.nextInt(256)));
+            }
+            runs.add(writeRun(placements, "run" + run));
+            all.addAll(placements);
+        }
+
+        Collections.sort(all);
+        assertEquals(all, merge(runs, null));
+    }
+
+    @Test
+    void mapsTheUsersOfEveryRun() throws IOException {
+        List<Path> runs = List.of(
+            writeRun(List.of(
+                new Placement(1000, 0, (short) 1, (short) 1, 1),
+                new Placement(3000, 1, (short) 1, (short) 1, 1)
+            ), "a"),
+            writeRun(List.of(
+                new Placement(1000, 0, (short) 2, (short) 2, 2),
+                new Placement(2000, 1, (short) 2, (short) 2, 2)
+            ), "b")
+        );
+        List<int[]> users = List.of(new int[]{2, 4}, new int[]{1, 3});
+
+        assertEquals(List.of(
+            new Placement(1000, 1, (short) 2, (short) 2, 2),
+            new Placement(1000, 2, (short) 1, (short) 1, 1),
+            new Placement(2000, 3, (short) 2, (short) 2, 2),
+            new Placement(3000, 4, (short) 1, (short) 1, 1)
+        ), merge(runs, users));
+    }
+
+    @Test
+    void mergesEmptyRuns() throws IOException {
+        Path empty = writeRun(List.of(), "empty");
+        Path single = writeRun(List.of(new Placement(5, 1, (short) -1, (short) -2, 3)), "single");
+
+        assertEquals(List.of(new Placement(5, 1, (short) -1, (short) -2, 3)), merge(List.of(empty, single, empty), null));
+    }
+
+    private Path writeRun(List<Placement> placements, String name) throws IOException {
+        PlacementColumns columns = new PlacementColumns();
+        PlacementBatch batch = new PlacementBatch();
+        placements.forEach(batch::add);
+        columns.addAll(batch);
+
+        Path path = directory.resolve(name);
+        SortedRun.write(path, columns, new RadixSorter(1).sort(columns));
+        return path;
+    }
+
+    private static List<Placement> merge(List<Path> runs, List<int[]> users) throws IOException {
+        List<Placement> placements = new ArrayList<>();
+        SortedRun.merge(runs, users, new PlacementWriter() {
+            @Override
+            public void write(Placement placement) {
+                placements.add(placement);
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return placements;
+    }
+
+}
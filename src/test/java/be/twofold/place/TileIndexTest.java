@@ -0,0 +1,126 @@
+package be.twofold.place;
+
+import be.twofold.place.model.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TileIndexTest {
+
+    private static final Year Year2022 = Year.of(2022);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsTheRecordsOfEveryTile() throws IOException {
+        List<Placement> placements = placements();
+        try (TileIndex index = write(placements)) {
+            assertEquals(placements.size(), index.records());
+
+            Set<Integer> expectedTiles = new TreeSet<>();
+            for (Placement placement : placements) {
+                expectedTiles.add(TileIndex.tile(placement.getX() - index.originX(), placement.getY() - index.originY()));
+            }
+            assertArrayEquals(expectedTiles.stream().mapToInt(Integer::intValue).toArray(), index.tiles());
+
+            for (int tile : index.tiles()) {
+                TileIndex.Cursor cursor = index.cursor(tile);
+                for (int record = 0; record < placements.size(); record++) {
+                    Placement placement = placements.get(record);
+                    int x = placement.getX() - index.originX();
+                    int y = placement.getY() - index.originY();
+                    if (TileIndex.tile(x, y) != tile) {
+                        continue;
+                    }
+                    assertEquals(record, cursor.record());
+                    assertEquals((y % TileIndex.TileSize) * TileIndex.TileSize + x % TileIndex.TileSize, cursor.offset());
+                    assertEquals(placement.getColor(), Byte.toUnsignedInt(cursor.color()));
+                    cursor.next();
+                }
+                assertEquals(Long.MAX_VALUE, cursor.record());
+            }
+            assertEquals(Long.MAX_VALUE, index.cursor(TileIndex.TilesAcross * TileIndex.TilesAcross - 1).record());
+        }
+    }
+
+    @Test
+    void countsTheRecordsUntilEverySecond() throws IOException {
+        List<Placement> placements = placements();
+        try (TileIndex index = write(placements)) {
+            long first = placements.get(0).getTimestamp() / 1000;
+            long last = placements.get(placements.size() - 1).getTimestamp() / 1000;
+            assertEquals(first, index.firstSecond());
+            for (long second = first - 2; second <= last + 2; second++) {
+                long cutoff = second * 1000;
+                long expected = placements.stream().filter(placement -> placement.getTimestamp() <= cutoff).count();
+                assertEquals(expected, index.recordsUntil(second), "second " + second);
+            }
+        }
+    }
+
+    @Test
+    void findsTheStateBeforeARecord() throws IOException {
+        List<Placement> placements = new ArrayList<>(placements());
+        int expansion = placements.size();
+        long timestamp = placements.get(expansion - 1).getTimestamp();
+        // Placements outside the first phase move the canvas on to the next ones
+        placements.add(new Placement(timestamp + 1, 1, (short) 1500, (short) 500, 3));
+        placements.add(new Placement(timestamp + 2, 1, (short) 1500, (short) 1500, 3));
+
+        try (TileIndex index = write(placements)) {
+            int first = Canvas.forYear(Year2022).state();
+            assertEquals(first, index.state(0));
+            assertEquals(first, index.state(expansion));
+            assertEquals(first + 1, index.state(expansion + 1));
+            assertEquals(first + 2, index.state(expansion + 2));
+        }
+    }
+
+    private TileIndex write(List<Placement> placements) throws IOException {
+        Path path = directory.resolve(TileIndex.FileName);
+        try (TileIndexWriter writer = new TileIndexWriter(new PlacementWriter() {
+            @Override
+            public void write(Placement placement) {
+            }
+
+            @Override
+            public void close() {
+            }
+        }, path, Year2022)) {
+            PlacementBatch batch = new PlacementBatch(1000);
+            for (Placement placement : placements) {
+                batch.add(placement);
+                if (batch.isFull()) {
+                    writer.write(batch);
+                    batch.clear();
+                }
+            }
+            writer.write(batch);
+        }
+        return new TileIndex(path);
+    }
+
+    /**
+     * Placements on the first phase of 2022, with more than a chunk in some tiles, and gaps of a few seconds
+     */
+    private static List<Placement> placements() {
+        Random random = new Random(16);
+        List<Placement> placements = new ArrayList<>();
+        long timestamp = 1_648_817_050_123L;
+        for (int i = 0; i < 3 * TileIndex.ChunkSize; i++) {
+            timestamp += random.nextInt(10) == 0 ? random.nextInt(5000) : random.nextInt(50);
+            short x = (short) random.nextInt(random.nextBoolean() ? 200 : 1000);
+            short y = (short) random.nextInt(random.nextBoolean() ? 200 : 1000);
+            placements.add(new Placement(timestamp, 1 + random.nextInt(100), x, y, random.nextInt(16)));
+        }
+        return placements;
+    }
+
+}
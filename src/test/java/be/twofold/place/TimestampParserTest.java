@@ -0,0 +1,86 @@
+package be.twofold.place;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.charset.*;
+import java.time.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimestampParserTest {
+
+    private final TimestampParser parser = new TimestampParser();
+
+    @Test
+    void parsesWithoutFraction() {
+        assertParses("2022-04-01 12:34:56 UTC", LocalDateTime.of(2022, 4, 1, 12, 34, 56));
+    }
+
+    @Test
+    void parsesOneFractionDigit() {
+        assertParses("2022-04-01 12:34:56.7 UTC", LocalDateTime.of(2022, 4, 1, 12, 34, 56, 700_000_000));
+    }
+
+    @Test
+    void parsesTwoFractionDigits() {
+        assertParses("2022-04-01 12:34:56.78 UTC", LocalDateTime.of(2022, 4, 1, 12, 34, 56, 780_000_000));
+    }
+
+    @Test
+    void parsesThreeFractionDigits() {
+        assertParses("2022-04-01 12:34:56.789 UTC", LocalDateTime.of(2022, 4, 1, 12, 34, 56, 789_000_000));
+        assertParses("2022-04-01 12:34:56.007 UTC", LocalDateTime.of(2022, 4, 1, 12, 34, 56, 7_000_000));
+    }
+
+    @Test
+    void parsesAcrossHours() {
+        assertParses("2022-04-01 12:59:59.999 UTC", LocalDateTime.of(2022, 4, 1, 12, 59, 59, 999_000_000));
+        assertParses("2022-04-01 13:00:00 UTC", LocalDateTime.of(2022, 4, 1, 13, 0, 0));
+    }
+
+    @Test
+    void parsesAcrossDays() {
+        assertParses("2022-04-01 23:59:59.999 UTC", LocalDateTime.of(2022, 4, 1, 23, 59, 59, 999_000_000));
+        assertParses("2022-04-02 00:00:00 UTC", LocalDateTime.of(2022, 4, 2, 0, 0, 0));
+        assertParses("2022-04-30 23:59:59 UTC", LocalDateTime.of(2022, 4, 30, 23, 59, 59));
+        assertParses("2022-05-01 00:00:00 UTC", LocalDateTime.of(2022, 5, 1, 0, 0, 0));
+    }
+
+    @Test
+    void parsesHoursSharingACacheSlot() {
+        // Ten days and sixteen hours apart, the keys of both hours differ by the size of the cache
+        for (int i = 0; i < 3; i++) {
+            assertParses("2022-04-01 05:10:20.300 UTC", LocalDateTime.of(2022, 4, 1, 5, 10, 20, 300_000_000));
+            assertParses("2022-04-11 21:10:20.300 UTC", LocalDateTime.of(2022, 4, 11, 21, 10, 20, 300_000_000));
+        }
+    }
+
+    @Test
+    void rejectsInvalidMinute() {
+        assertThrows(IllegalArgumentException.class, () -> parse("2022-04-01 12:60:00 UTC"));
+    }
+
+    @Test
+    void rejectsInvalidSecond() {
+        assertThrows(IllegalArgumentException.class, () -> parse("2022-04-01 12:00:60 UTC"));
+        assertThrows(IllegalArgumentException.class, () -> parse("2022-04-01 12:00:0x UTC"));
+    }
+
+    @Test
+    void rejectsInvalidFraction() {
+        assertThrows(IllegalArgumentException.class, () -> parse("2022-04-01 12:00:00. UTC"));
+        assertThrows(IllegalArgumentException.class, () -> parse("2022-04-01 12:00:00.1234 UTC"));
+        assertThrows(IllegalArgumentException.class, () -> parse("2022-04-01 12:00:00.1a UTC"));
+    }
+
+    private void assertParses(String text, LocalDateTime expected) {
+        assertEquals(expected.toInstant(ZoneOffset.UTC).toEpochMilli(), parse(text), text);
+    }
+
+    private long parse(String text) {
+        // Surrounded by other bytes, like a timestamp in a line
+        byte[] buffer = (",," + text + ",").getBytes(StandardCharsets.US_ASCII);
+        return parser.parse(buffer, 2, buffer.length - 1);
+    }
+
+}